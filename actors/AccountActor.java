@@ -0,0 +1,200 @@
+package actors;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import money.*;
+
+/**
+ * The owner of a group of consecutive accounts. Only the actor touches their
+ * balances, and it handles one message at a time, so it needs no locks.
+ * Messages wait in a mailbox; the actor is scheduled when the first message
+ * arrives and then handles a batch of messages per run, so a busy actor
+ * costs one scheduling per batch rather than one per message.
+ */
+class AccountActor implements Runnable
+{
+   private final Bank bank;
+   private final int first;
+   private final long[] balances;
+   // The debits waiting for money in each account, in arrival order,
+   // created when the first debit has to wait.
+   private final ArrayDeque<?>[] parked;
+
+   private final Queue<Message> mailbox = new ConcurrentLinkedQueue<>();
+   private final AtomicBoolean scheduled = new AtomicBoolean();
+   private final Executor executor;
+   private final int batchSize;
+
+   /**
+    * Constructs an actor.
+    * @param bank the bank that routes the credits
+    * @param first the number of the first account of the group
+    * @param n the number of accounts in the group
+    * @param initialBalance the initial balance for each account, in cents
+    * @param executor runs the batches
+    * @param batchSize the most messages to handle per run
+    */
+   AccountActor(Bank bank, int first, int n, long initialBalance, Executor executor, int batchSize)
+   {
+      this.bank = bank;
+      this.first = first;
+      balances = new long[n];
+      Arrays.fill(balances, initialBalance);
+      parked = new ArrayDeque<?>[n];
+      this.executor = executor;
+      this.batchSize = batchSize;
+   }
+
+   /**
+    * Puts a message into the mailbox, and schedules the actor unless it is
+    * scheduled already.
+    * @param message the message
+    */
+   void send(Message message)
+   {
+      mailbox.offer(message);
+      if (!scheduled.get() && scheduled.compareAndSet(false, true))
+         executor.execute(this);
+   }
+
+   /**
+    * Handles a batch of messages. If more are left, the actor schedules
+    * itself again rather than keep the thread, so that other actors get
+    * their turn.
+    */
+   public void run()
+   {
+      int handled = 0;
+      CountDownLatch paused = null;
+      try
+      {
+         Message message;
+         while (handled < batchSize && (message = mailbox.poll()) != null)
+         {
+            handled++;
+            if (message.kind == Message.Kind.PAUSE)
+            {
+               paused = message.paused;
+               break;
+            }
+            handle(message);
+         }
+      }
+      finally
+      {
+         // Even if a message threw, the actor must not stay marked as
+         // scheduled, or it would never run again.
+         bank.drained(handled);
+         if (paused != null)
+         {
+            // The actor stays marked as scheduled, so that no message
+            // schedules it until the bank resumes it.
+            paused.countDown();
+         }
+         else
+         {
+            // A message that arrives after the flag is cleared schedules the
+            // actor itself; one that arrived before is caught here.
+            scheduled.set(false);
+            if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true))
+               executor.execute(this);
+         }
+      }
+   }
+
+   /**
+    * Gets the money of a paused actor: its balances, and the credits waiting
+    * in its mailbox. Only call this after the actor has counted down the
+    * latch of the pause.
+    * @return the sum, in cents
+    */
+   long pausedTotal()
+   {
+      long sum = 0;
+      for (long b : balances)
+         sum += b;
+      for (Message m : mailbox)
+         if (m.kind == Message.Kind.CREDIT) sum += m.amount;
+      return sum;
+   }
+
+   /**
+    * Lets a paused actor handle its messages again.
+    */
+   void resume()
+   {
+      executor.execute(this);
+   }
+
+   private void handle(Message message)
+   {
+      switch (message.kind)
+      {
+         case DEBIT:
+            int i = message.from - first;
+            ArrayDeque<Message> queue = parkedOf(i);
+            // Debits from an account go through in arrival order.
+            if ((queue == null || queue.isEmpty()) && balances[i] >= message.amount)
+               debit(message);
+            else if (message.wait)
+               park(i, message);
+            else
+               message.done.complete(false);
+            break;
+         case CREDIT:
+            int j = message.to - first;
+            balances[j] = Money.add(balances[j], message.amount);
+            message.done.complete(true);
+            replay(j);
+            break;
+         case BALANCE:
+            long result = 0;
+            if (message.from >= 0)
+               result = balances[message.from - first];
+            else
+               for (long b : balances)
+                  result += b;
+            message.balance.complete(result);
+            break;
+         case PAUSE:
+            // Taken care of in run.
+            break;
+      }
+   }
+
+   private void debit(Message message)
+   {
+      balances[message.from - first] -= message.amount;
+      bank.actorOf(message.to).send(Message.credit(message.to, message.amount, message.done));
+   }
+
+   @SuppressWarnings("unchecked")
+   private ArrayDeque<Message> parkedOf(int i)
+   {
+      return (ArrayDeque<Message>) parked[i];
+   }
+
+   private void park(int i, Message message)
+   {
+      ArrayDeque<Message> queue = parkedOf(i);
+      if (queue == null)
+      {
+         queue = new ArrayDeque<>();
+         parked[i] = queue;
+      }
+      queue.add(message);
+   }
+
+   /**
+    * Lets the parked debits of an account go through, in order, as far as
+    * its balance pays for them.
+    */
+   private void replay(int i)
+   {
+      ArrayDeque<Message> queue = parkedOf(i);
+      if (queue == null) return;
+      while (!queue.isEmpty() && queue.peekFirst().amount <= balances[i])
+         debit(queue.pollFirst());
+   }
+}
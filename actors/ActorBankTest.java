@@ -0,0 +1,56 @@
+package actors;
+
+import loadGen.*;
+import money.*;
+
+/**
+ * This program runs the actor bank under load, reporting the total balance,
+ * which holds steady while the transfers run, and ends with the throughput and the average
+ * number of messages an actor handled per run.
+ * @version 1.00 2026-10-15
+ */
+public class ActorBankTest
+{
+   public static final int NACCOUNTS = 100;
+   public static final long INITIAL_BALANCE = Money.ofUnits(1000);
+   public static final long MAX_AMOUNT = Money.ofUnits(1000);
+   public static final int DELAY = 10;
+   public static final int REPORT_DELAY = 1000;
+
+   /**
+    * @param args the load options, see {@link LoadOptions}, and
+    * --accounts-per-actor and --batch for the actors
+    */
+   public static void main(String[] args) throws InterruptedException
+   {
+      var options = new LoadOptions(args);
+      int naccounts = options.getInt("accounts", NACCOUNTS);
+      var bank = new Bank(naccounts, INITIAL_BALANCE, options.getInt("accounts-per-actor", 1),
+         options.getInt("batch", Bank.DEFAULT_BATCH_SIZE));
+      System.out.printf("Actors run on %s threads%n",
+         VirtualThreads.isSupported() ? "virtual" : "fork-join pool");
+
+      Runnable reporter = () -> {
+         try
+         {
+            while (true)
+            {
+               Thread.sleep(REPORT_DELAY);
+               System.out.printf("Total Balance: %10s%n", Money.format(bank.getTotalBalance()));
+            }
+         }
+         catch (InterruptedException e)
+         {
+         }
+      };
+      var t = new Thread(reporter);
+      t.setDaemon(true);
+      t.start();
+
+      LoadGenerator.Report report = options.run(bank::transfer, naccounts, MAX_AMOUNT, DELAY);
+      report.print(System.out);
+      System.out.printf("%.1f messages per actor run%n", bank.getAverageBatchSize());
+      System.out.printf("Total Balance: %10s%n", Money.format(bank.getTotalBalance()));
+      bank.close();
+   }
+}
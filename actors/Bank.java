@@ -0,0 +1,252 @@
+package actors;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import loadGen.*;
+import money.*;
+
+/**
+ * A bank without shared locks. Each group of accounts is owned by an actor
+ * that alone changes its balances, see {@link AccountActor}. A transfer is a
+ * debit message to the actor of the source account, which passes the money
+ * on in a credit message to the actor of the target account. A debit that
+ * finds too little money is parked by its actor and replayed when a credit
+ * to the account arrives, in the order the debits came in. The actors run on
+ * virtual threads when the Java runtime has them, and on a fork-join pool
+ * otherwise. Balances and amounts are whole cents, see {@link Money}.
+ *
+ * The futures that this bank returns are completed by the actors, so
+ * dependent actions that do not name an executor run in an actor and should
+ * be short.
+ */
+public class Bank implements AutoCloseable
+{
+   public static final int DEFAULT_BATCH_SIZE = 64;
+
+   private final int n;
+   private final int accountsPerActor;
+   private final AccountActor[] actors;
+   private final ForkJoinPool pool;
+
+   private final LongAdder batches = new LongAdder();
+   private final LongAdder messages = new LongAdder();
+
+   /**
+    * Constructs the bank with one actor per account.
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    */
+   public Bank(int n, long initialBalance)
+   {
+      this(n, initialBalance, 1, DEFAULT_BATCH_SIZE);
+   }
+
+   /**
+    * Constructs the bank.
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    * @param accountsPerActor the number of consecutive accounts that one
+    * actor owns
+    * @param batchSize the most messages an actor handles before it lets
+    * other actors run
+    */
+   public Bank(int n, long initialBalance, int accountsPerActor, int batchSize)
+   {
+      if (accountsPerActor <= 0) throw new IllegalArgumentException("accountsPerActor " + accountsPerActor);
+      if (batchSize <= 0) throw new IllegalArgumentException("batchSize " + batchSize);
+      // The total has to fit into a long.
+      Math.multiplyExact(n, initialBalance);
+      this.n = n;
+      this.accountsPerActor = accountsPerActor;
+
+      Executor executor;
+      if (VirtualThreads.isSupported())
+      {
+         ThreadFactory factory = VirtualThreads.factory();
+         executor = r -> factory.newThread(r).start();
+         pool = null;
+      }
+      else
+      {
+         // Async mode runs the actors that a worker schedules in the order it
+         // schedules them, as befits tasks that are never joined.
+         pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+         executor = pool;
+      }
+
+      actors = new AccountActor[(n + accountsPerActor - 1) / accountsPerActor];
+      for (int i = 0; i < actors.length; i++)
+      {
+         int first = i * accountsPerActor;
+         actors[i] = new AccountActor(this, first, Math.min(accountsPerActor, n - first),
+            initialBalance, executor, batchSize);
+      }
+   }
+
+   /**
+    * Gets the actor that owns an account.
+    * @param account the account number
+    * @return the actor
+    */
+   AccountActor actorOf(int account)
+   {
+      if (account < 0 || account >= n) throw new IndexOutOfBoundsException("account " + account);
+      return actors[account / accountsPerActor];
+   }
+
+   /**
+    * Counts a batch of messages that an actor has handled.
+    * @param count the number of messages in the batch
+    */
+   void drained(int count)
+   {
+      batches.increment();
+      messages.add(count);
+   }
+
+   /**
+    * Starts a transfer that waits as long as it takes for the source account
+    * to hold enough money.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    * @return a future that completes with true when the money has arrived
+    */
+   public CompletableFuture<Boolean> transferAsync(int from, int to, long amount)
+   {
+      return send(from, to, amount, true);
+   }
+
+   /**
+    * Starts a transfer that fails if the source account cannot pay it when
+    * its actor gets to it, or if earlier transfers from the account are
+    * still waiting for money.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    * @return a future that completes with true when the money has arrived,
+    * or with false if the transfer failed
+    */
+   public CompletableFuture<Boolean> tryTransfer(int from, int to, long amount)
+   {
+      return send(from, to, amount, false);
+   }
+
+   private CompletableFuture<Boolean> send(int from, int to, long amount, boolean wait)
+   {
+      // Check the target account here, where the caller sees the exception.
+      actorOf(to);
+      var done = new CompletableFuture<Boolean>();
+      actorOf(from).send(Message.debit(from, to, amount, wait, done));
+      return done;
+   }
+
+   /**
+    * Transfers money from one account to another, waiting as long as it takes
+    * for the source account to hold enough money. If the calling thread is
+    * interrupted, the transfer stays parked and may still go through later.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    */
+   public void transfer(int from, int to, long amount) throws InterruptedException
+   {
+      await(transferAsync(from, to, amount));
+   }
+
+   /**
+    * Gets the balance of an account from its actor.
+    * @param account the account number
+    * @return the balance, in cents, after the messages that reached the
+    * actor before this query
+    */
+   public long getBalance(int account) throws InterruptedException
+   {
+      var balance = new CompletableFuture<Long>();
+      actorOf(account).send(Message.balance(account, balance));
+      return await(balance);
+   }
+
+   /**
+    * Gets the sum of all account balances. Every actor stops at a pause
+    * marker, without holding a thread, and once all have stopped no money
+    * moves: it is either in a balance or in a credit waiting in a mailbox,
+    * and both are counted, so the sum is exact. The actors go on when the
+    * sum is taken. The wait for the actors cannot be interrupted, since the
+    * markers cannot be taken back.
+    * @return the total balance, in cents
+    */
+   public synchronized long getTotalBalance()
+   {
+      var paused = new CountDownLatch(actors.length);
+      for (AccountActor actor : actors)
+         actor.send(Message.pause(paused));
+      boolean interrupted = false;
+      while (true)
+      {
+         try
+         {
+            paused.await();
+            break;
+         }
+         catch (InterruptedException e)
+         {
+            interrupted = true;
+         }
+      }
+      try
+      {
+         long total = 0;
+         for (AccountActor actor : actors)
+            total += actor.pausedTotal();
+         return total;
+      }
+      finally
+      {
+         for (AccountActor actor : actors)
+            actor.resume();
+         if (interrupted) Thread.currentThread().interrupt();
+      }
+   }
+
+   private static <T> T await(CompletableFuture<T> future) throws InterruptedException
+   {
+      try
+      {
+         return future.get();
+      }
+      catch (ExecutionException e)
+      {
+         throw new IllegalStateException(e.getCause());
+      }
+   }
+
+   /**
+    * Gets the average number of messages that an actor handled per run.
+    * @return the average batch size
+    */
+   public double getAverageBatchSize()
+   {
+      long b = batches.sum();
+      return b == 0 ? 0 : messages.sum() / (double) b;
+   }
+
+   /**
+    * Gets the number of accounts in the bank.
+    * @return the number of accounts
+    */
+   public int size()
+   {
+      return n;
+   }
+
+   /**
+    * Stops the worker threads of the fork-join pool, if the actors run on
+    * one. No requests may be made after this.
+    */
+   public void close()
+   {
+      if (pool != null) pool.shutdown();
+   }
+}
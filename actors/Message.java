@@ -0,0 +1,76 @@
+package actors;
+
+import java.util.concurrent.*;
+
+/**
+ * A message to the actor that owns an account. A transfer is a debit to the
+ * actor of the source account, which on success sends a credit to the actor
+ * of the target account; the credit completes the transfer.
+ */
+class Message
+{
+   enum Kind
+   {
+      /** Take money from an account and pass it on in a credit. */
+      DEBIT,
+      /** Add money to an account and complete the transfer. */
+      CREDIT,
+      /** Report the balance of one account, or the sum of all of the actor's. */
+      BALANCE,
+      /** Stop handling messages until the bank resumes the actor. */
+      PAUSE
+   }
+
+   final Kind kind;
+   final int from;
+   final int to;
+   final long amount;
+   // For a debit: whether to park the debit until the money is there, or
+   // to fail it at once.
+   final boolean wait;
+   final CompletableFuture<Boolean> done;
+   final CompletableFuture<Long> balance;
+   final CountDownLatch paused;
+
+   private Message(Kind kind, int from, int to, long amount, boolean wait,
+      CompletableFuture<Boolean> done, CompletableFuture<Long> balance, CountDownLatch paused)
+   {
+      this.kind = kind;
+      this.from = from;
+      this.to = to;
+      this.amount = amount;
+      this.wait = wait;
+      this.done = done;
+      this.balance = balance;
+      this.paused = paused;
+   }
+
+   static Message debit(int from, int to, long amount, boolean wait, CompletableFuture<Boolean> done)
+   {
+      return new Message(Kind.DEBIT, from, to, amount, wait, done, null, null);
+   }
+
+   static Message credit(int to, long amount, CompletableFuture<Boolean> done)
+   {
+      return new Message(Kind.CREDIT, -1, to, amount, false, done, null, null);
+   }
+
+   /**
+    * Makes a balance query.
+    * @param account the account, or -1 for the sum of all accounts of the actor
+    * @param balance completed with the balance
+    */
+   static Message balance(int account, CompletableFuture<Long> balance)
+   {
+      return new Message(Kind.BALANCE, account, -1, 0, false, null, balance, null);
+   }
+
+   /**
+    * Makes a pause marker.
+    * @param paused counted down when the actor has stopped
+    */
+   static Message pause(CountDownLatch paused)
+   {
+      return new Message(Kind.PAUSE, -1, -1, 0, false, null, null, paused);
+   }
+}
@@ -0,0 +1,79 @@
+package bankBench;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Picks account numbers with a Zipf distribution, so that a few accounts get
+ * most of the traffic. Account 0 is the most popular one, account 1 the next,
+ * and so on. A skew of 0 picks accounts uniformly.
+ */
+public class AccountPicker
+{
+   private final int n;
+   private final double[] cumulative;
+   private int hotAccounts;
+   private double hotFraction;
+
+   /**
+    * Constructs a picker.
+    * @param n the number of accounts
+    * @param skew the Zipf exponent; 0 for uniform, around 1 for heavy skew
+    */
+   public AccountPicker(int n, double skew)
+   {
+      this.n = n;
+      if (skew == 0)
+      {
+         cumulative = null;
+         return;
+      }
+      cumulative = new double[n];
+      double sum = 0;
+      for (int i = 0; i < n; i++)
+      {
+         sum += 1 / Math.pow(i + 1, skew);
+         cumulative[i] = sum;
+      }
+      for (int i = 0; i < n; i++)
+         cumulative[i] /= sum;
+   }
+
+   /**
+    * Makes a picker that sends a fixed share of the traffic to a few hot
+    * accounts, and spreads the rest uniformly over all accounts.
+    * @param n the number of accounts
+    * @param hotAccounts the number of hot accounts, numbered from 0
+    * @param hotFraction the share of picks that go to the hot accounts
+    * @return the picker
+    */
+   public static AccountPicker hot(int n, int hotAccounts, double hotFraction)
+   {
+      var picker = new AccountPicker(n, 0);
+      picker.hotAccounts = hotAccounts;
+      picker.hotFraction = hotFraction;
+      return picker;
+   }
+
+   /**
+    * Picks an account.
+    * @return an account number between 0 and n - 1
+    */
+   public int next()
+   {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      if (hotAccounts > 0 && random.nextDouble() < hotFraction) return random.nextInt(hotAccounts);
+      if (cumulative == null) return random.nextInt(n);
+      int i = Arrays.binarySearch(cumulative, random.nextDouble());
+      return Math.min(i >= 0 ? i : -i - 1, n - 1);
+   }
+
+   /**
+    * Gets the number of accounts to pick from.
+    * @return the number of accounts
+    */
+   public int size()
+   {
+      return n;
+   }
+}
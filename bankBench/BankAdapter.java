@@ -0,0 +1,93 @@
+package bankBench;
+
+import java.util.concurrent.*;
+
+/**
+ * The operations that the benchmark needs from a bank, so that the different
+ * bank classes can be driven by the same code.
+ */
+public interface BankAdapter
+{
+   /**
+    * Transfers money, giving up if the transfer could not be made in time.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    * @param timeoutNanos the longest time to wait for sufficient funds
+    * @return false if the transfer timed out waiting for sufficient funds
+    */
+   boolean transfer(int from, int to, long amount, long timeoutNanos) throws InterruptedException;
+
+   /**
+    * Gets the sum of all balances.
+    * @return the total balance, in cents
+    */
+   long getTotalBalance();
+
+   /**
+    * Makes a bank of a given kind.
+    * @param variant one of unsynch, synch, synch2 or threads
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    * @return an adapter for a new bank
+    */
+   static BankAdapter create(String variant, int n, long initialBalance)
+   {
+      if (variant.equals("unsynch"))
+      {
+         var bank = new unsynch.Bank(n, initialBalance);
+         return of((from, to, amount, timeout) -> {
+            bank.transfer(from, to, amount);
+            return true;
+         }, bank::getTotalBalance);
+      }
+      if (variant.equals("threads"))
+      {
+         var bank = new threads.Bank(n, initialBalance);
+         return of((from, to, amount, timeout) -> {
+            bank.transfer(from, to, amount);
+            return true;
+         }, bank::getTotalBalance);
+      }
+      if (variant.equals("synch"))
+      {
+         var bank = new synch.Bank(n, initialBalance, transferLog.TransferSink.discard());
+         return of((from, to, amount, timeout) ->
+            bank.tryTransfer(from, to, amount, timeout, TimeUnit.NANOSECONDS),
+            bank::recountTotalBalance);
+      }
+      if (variant.equals("synch2"))
+      {
+         var bank = new synch2.Bank(n, initialBalance, transferLog.TransferSink.discard());
+         return of((from, to, amount, timeout) ->
+            bank.tryTransfer(from, to, amount, timeout, TimeUnit.NANOSECONDS),
+            bank::getTotalBalance);
+      }
+      throw new IllegalArgumentException("Unknown bank variant " + variant);
+   }
+
+   private static BankAdapter of(TransferOperation transfer, java.util.function.LongSupplier total)
+   {
+      return new BankAdapter()
+      {
+         public boolean transfer(int from, int to, long amount, long timeoutNanos)
+            throws InterruptedException
+         {
+            return transfer.transfer(from, to, amount, timeoutNanos);
+         }
+
+         public long getTotalBalance()
+         {
+            return total.getAsLong();
+         }
+      };
+   }
+
+   /**
+    * A transfer method of one of the bank classes.
+    */
+   interface TransferOperation
+   {
+      boolean transfer(int from, int to, long amount, long timeoutNanos) throws InterruptedException;
+   }
+}
@@ -0,0 +1,145 @@
+package bankBench;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import money.*;
+
+/**
+ * This program measures the bank variants against each other. For every
+ * combination of variant, thread count, account count and skew it runs a
+ * warmup and a timed run of back-to-back transfers, then reports throughput,
+ * latency percentiles and whether the total balance was preserved. Transfers
+ * that time out waiting for sufficient funds are counted separately and left
+ * out of the throughput and latencies.
+ *
+ * Options (all optional, lists are comma-separated):
+ *   --variants unsynch,synch,synch2,threads
+ *   --threads 1,2,4,8
+ *   --accounts 100,10000
+ *   --skew 0,0.99
+ *   --seconds 5
+ *   --warmup 1
+ * @version 1.00 2026-10-15
+ */
+public class BankBenchmark
+{
+   public static final long INITIAL_BALANCE = Money.ofUnits(1000);
+   public static final long MAX_AMOUNT = Money.ofUnits(100);
+   public static final long TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+   public static void main(String[] args) throws InterruptedException
+   {
+      Map<String, String> options = parse(args);
+      String[] variants = options.getOrDefault("variants", "unsynch,synch,synch2,threads").split(",");
+      int[] threadCounts = ints(options.getOrDefault("threads", "1,2,4,8"));
+      int[] accountCounts = ints(options.getOrDefault("accounts", "100,10000"));
+      double[] skews = doubles(options.getOrDefault("skew", "0,0.99"));
+      int seconds = Integer.parseInt(options.getOrDefault("seconds", "5"));
+      int warmup = Integer.parseInt(options.getOrDefault("warmup", "1"));
+
+      // The unsynchronized banks print every transfer; keep that out of the timings.
+      PrintStream console = System.out;
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+      console.printf("%-8s %7s %8s %5s %12s %9s %9s %9s %9s %9s  %s%n", "variant", "threads",
+         "accounts", "skew", "ops/s", "p50 us", "p99 us", "p99.9 us", "max us", "timeouts", "total");
+      for (String variant : variants)
+         for (int accounts : accountCounts)
+            for (double skew : skews)
+               for (int threads : threadCounts)
+               {
+                  run(variant, threads, accounts, skew, warmup);
+                  Result r = run(variant, threads, accounts, skew, seconds);
+                  LatencyHistogram h = r.latencies;
+                  console.printf("%-8s %7d %8d %5.2f %12.0f %9.1f %9.1f %9.1f %9.1f %9d  %s%n", variant,
+                     threads, accounts, skew, h.getCount() / (double) seconds,
+                     h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(99) / 1000.0,
+                     h.getValueAtPercentile(99.9) / 1000.0, h.getMax() / 1000.0, r.timeouts,
+                     r.preserved ? "preserved" : "VIOLATED (" + Money.format(r.total) + ")");
+               }
+      System.setOut(console);
+   }
+
+   private static class Result
+   {
+      LatencyHistogram latencies = new LatencyHistogram();
+      long timeouts;
+      long total;
+      boolean preserved;
+   }
+
+   /**
+    * Runs worker threads against a fresh bank for a given time.
+    */
+   private static Result run(String variant, int nthreads, int accounts, double skew, int seconds)
+      throws InterruptedException
+   {
+      BankAdapter bank = BankAdapter.create(variant, accounts, INITIAL_BALANCE);
+      var picker = new AccountPicker(accounts, skew);
+      long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+      var histograms = new LatencyHistogram[nthreads];
+      var timeouts = new long[nthreads];
+      var workers = new Thread[nthreads];
+      for (int t = 0; t < nthreads; t++)
+      {
+         var histogram = new LatencyHistogram();
+         histograms[t] = histogram;
+         int index = t;
+         Runnable r = () -> {
+            try
+            {
+               var random = ThreadLocalRandom.current();
+               long now;
+               while ((now = System.nanoTime()) < end)
+               {
+                  int from = picker.next();
+                  int to = picker.next();
+                  long amount = random.nextLong(MAX_AMOUNT);
+                  if (bank.transfer(from, to, amount, Math.min(TIMEOUT_NANOS, end - now)))
+                     histogram.record(System.nanoTime() - now);
+                  else
+                     timeouts[index]++;
+               }
+            }
+            catch (InterruptedException e)
+            {
+            }
+         };
+         workers[t] = new Thread(r);
+         workers[t].start();
+      }
+
+      var result = new Result();
+      for (int t = 0; t < nthreads; t++)
+      {
+         workers[t].join();
+         result.latencies.add(histograms[t]);
+         result.timeouts += timeouts[t];
+      }
+      result.total = bank.getTotalBalance();
+      result.preserved = result.total == accounts * INITIAL_BALANCE;
+      return result;
+   }
+
+   private static Map<String, String> parse(String[] args)
+   {
+      var options = new HashMap<String, String>();
+      for (int i = 0; i + 1 < args.length; i += 2)
+      {
+         if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected " + args[i]);
+         options.put(args[i].substring(2), args[i + 1]);
+      }
+      return options;
+   }
+
+   private static int[] ints(String list)
+   {
+      return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+   }
+
+   private static double[] doubles(String list)
+   {
+      return Arrays.stream(list.split(",")).mapToDouble(Double::parseDouble).toArray();
+   }
+}
@@ -0,0 +1,123 @@
+package bankBench;
+
+/**
+ * A histogram of latencies in nanoseconds with a fixed relative precision.
+ * Each power of two is split into 32 linear sub-buckets, so a recorded value
+ * is off by at most about 3%. A histogram is not thread-safe: give each
+ * thread its own and merge them at the end.
+ */
+public class LatencyHistogram
+{
+   private static final int SUB_BITS = 6;
+   private static final int SUB_COUNT = 1 << SUB_BITS;
+
+   private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB_COUNT];
+   private long total;
+   private long max;
+
+   /**
+    * Records one value.
+    * @param nanos the latency in nanoseconds
+    */
+   public void record(long nanos)
+   {
+      record(nanos, 1);
+   }
+
+   /**
+    * Records a value a number of times.
+    * @param nanos the latency in nanoseconds
+    * @param count how often to record it
+    */
+   public void record(long nanos, long count)
+   {
+      if (nanos < 0) nanos = 0;
+      counts[index(nanos)] += count;
+      total += count;
+      if (nanos > max) max = nanos;
+   }
+
+   /**
+    * Records a value measured by a caller that waits for each operation
+    * before issuing the next one. Such a caller issues nothing while an
+    * operation stalls, so the operations that would have been issued during
+    * the stall are recorded as well, each with the latency it would have
+    * seen. This corrects for coordinated omission.
+    * @param nanos the latency in nanoseconds
+    * @param expectedIntervalNanos the expected time between two operations,
+    * or 0 to record the value only
+    */
+   public void recordCorrected(long nanos, long expectedIntervalNanos)
+   {
+      record(nanos);
+      if (expectedIntervalNanos <= 0) return;
+      for (long missed = nanos - expectedIntervalNanos; missed >= expectedIntervalNanos;
+            missed -= expectedIntervalNanos)
+         record(missed);
+   }
+
+   /**
+    * Adds the values of another histogram to this one.
+    * @param other the histogram to add
+    */
+   public void add(LatencyHistogram other)
+   {
+      for (int i = 0; i < counts.length; i++)
+         counts[i] += other.counts[i];
+      total += other.total;
+      max = Math.max(max, other.max);
+   }
+
+   /**
+    * Gets the number of recorded values.
+    * @return the count
+    */
+   public long getCount()
+   {
+      return total;
+   }
+
+   /**
+    * Gets the largest recorded value.
+    * @return the maximum, in nanoseconds
+    */
+   public long getMax()
+   {
+      return max;
+   }
+
+   /**
+    * Gets the value below which a given fraction of the recorded values lie.
+    * @param percentile the percentile, between 0 and 100
+    * @return the upper bound of the bucket holding that percentile, in
+    * nanoseconds
+    */
+   public long getValueAtPercentile(double percentile)
+   {
+      if (total == 0) return 0;
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++)
+      {
+         seen += counts[i];
+         if (seen >= rank) return Math.min(upperBound(i), max);
+      }
+      return max;
+   }
+
+   private static int index(long value)
+   {
+      if (value < SUB_COUNT) return (int) value;
+      // Shift the value so that it falls into the upper half of the
+      // sub-buckets; the shift selects the power of two.
+      int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+      return shift * SUB_COUNT + (int) (value >>> shift);
+   }
+
+   private static long upperBound(int index)
+   {
+      int shift = index / SUB_COUNT;
+      long sub = index % SUB_COUNT;
+      return ((sub + 1) << shift) - 1;
+   }
+}
@@ -0,0 +1,382 @@
+package disruptor;
+
+import java.lang.invoke.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import money.*;
+import transferLog.*;
+
+/**
+ * A bank whose accounts are owned by a single thread that takes transfers
+ * from a ring buffer. Producers write their requests into preallocated
+ * events, so a transfer allocates nothing. Three stages follow the ring, each
+ * in its own thread and each one step behind the previous one:
+ * <ol>
+ * <li>apply: moves the money, in sequence order, with no locking since no
+ * other thread touches the balances;</li>
+ * <li>journal: hands the transfers that went through to a transfer sink;</li>
+ * <li>notify: tells waiting producers the outcome and wakes transfers that
+ * wait for funds.</li>
+ * </ol>
+ * Balances and amounts are whole cents, see {@link Money}.
+ */
+public class Bank implements AutoCloseable
+{
+   public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+   private static final int SPIN_TRIES = 1000;
+
+   private final long[] accounts;
+   private final RingBuffer ring;
+   private final Stage[] stages;
+   private final Thread[] threads;
+
+   // Counted by the apply stage, and published at the end of each batch.
+   private long appliedInBatch;
+   private long rejectedInBatch;
+   private volatile long applied;
+   private volatile long rejected;
+
+   // The sequence of the latest credit to each account, written by the notify
+   // stage, and the transfers waiting for one, by account. A queue is made
+   // when the first transfer waits for the account.
+   private final AtomicLongArray credited;
+   private final AtomicReferenceArray<Queue<Thread>> fundsWaiters;
+   // The accounts credited in the current batch, kept by the notify stage.
+   private int[] creditedInBatch = new int[64];
+   private int ncreditedInBatch;
+
+   private final ThreadLocal<Completion> completions = ThreadLocal.withInitial(Completion::new);
+
+   /**
+    * The outcome of a request, passed from the notify stage to the producer
+    * that waits for it. Every producer thread reuses its own.
+    */
+   static class Completion
+   {
+      final Thread thread = Thread.currentThread();
+      volatile long done = -1;
+      boolean ok;
+      long value;
+   }
+
+   /**
+    * Constructs the bank with a blocking wait strategy and no journal.
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    */
+   public Bank(int n, long initialBalance)
+   {
+      this(n, initialBalance, DEFAULT_BUFFER_SIZE, WaitStrategy.BLOCK, TransferSink.discard());
+   }
+
+   /**
+    * Constructs the bank and starts its stages.
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    * @param bufferSize the number of slots in the ring, a power of two
+    * @param waitStrategy how idle stages wait
+    * @param journal the sink that records completed transfers; it is called
+    * from the journal stage
+    */
+   public Bank(int n, long initialBalance, int bufferSize, WaitStrategy waitStrategy,
+      TransferSink journal)
+   {
+      accounts = new long[n];
+      Arrays.fill(accounts, initialBalance);
+      // The total never changes, so if it fits, no single balance can overflow.
+      Math.multiplyExact(n, initialBalance);
+      credited = new AtomicLongArray(n);
+      for (int i = 0; i < n; i++)
+         credited.set(i, -1);
+      fundsWaiters = new AtomicReferenceArray<>(n);
+
+      var barrier = new Barrier(waitStrategy);
+      ring = new RingBuffer(bufferSize, barrier);
+      var applyStage = new Stage(ring, barrier, null, this::apply);
+      var journalStage = new Stage(ring, barrier, applyStage.sequence,
+         (event, sequence, endOfBatch) -> {
+            if (event.type == TransferEvent.TRANSFER && event.ok)
+               journal.transferred(event.from, event.to, event.amount);
+         });
+      var notifyStage = new Stage(ring, barrier, journalStage.sequence, this::complete);
+      ring.setGating(notifyStage.sequence);
+      stages = new Stage[] { applyStage, journalStage, notifyStage };
+      String[] names = { "transfer-apply", "transfer-journal", "transfer-notify" };
+      threads = new Thread[stages.length];
+      for (int i = 0; i < stages.length; i++)
+      {
+         threads[i] = new Thread(stages[i], names[i]);
+         threads[i].setDaemon(true);
+         threads[i].start();
+      }
+   }
+
+   /**
+    * The apply stage. It is the only code that touches the balances.
+    */
+   private void apply(TransferEvent event, long sequence, boolean endOfBatch)
+   {
+      if (event.type == TransferEvent.TRANSFER)
+      {
+         event.ok = accounts[event.from] >= event.amount;
+         if (event.ok)
+         {
+            accounts[event.from] -= event.amount;
+            accounts[event.to] += event.amount;
+            appliedInBatch++;
+         }
+         else
+            rejectedInBatch++;
+      }
+      else if (event.type == TransferEvent.BALANCE)
+         event.value = accounts[event.from];
+      else
+      {
+         long sum = 0;
+         for (long a : accounts)
+            sum += a;
+         event.value = sum;
+      }
+      if (endOfBatch)
+      {
+         applied += appliedInBatch;
+         rejected += rejectedInBatch;
+         appliedInBatch = 0;
+         rejectedInBatch = 0;
+      }
+   }
+
+   /**
+    * The notify stage. At the end of a batch it wakes only the transfers
+    * waiting for an account that the batch credited.
+    */
+   private void complete(TransferEvent event, long sequence, boolean endOfBatch)
+   {
+      if (event.type == TransferEvent.TRANSFER && event.ok)
+      {
+         credited.lazySet(event.to, sequence);
+         if (ncreditedInBatch == 0 || creditedInBatch[ncreditedInBatch - 1] != event.to)
+         {
+            if (ncreditedInBatch == creditedInBatch.length)
+               creditedInBatch = Arrays.copyOf(creditedInBatch, 2 * ncreditedInBatch);
+            creditedInBatch[ncreditedInBatch++] = event.to;
+         }
+      }
+      Completion c = event.completion;
+      if (c != null)
+      {
+         c.ok = event.ok;
+         c.value = event.value;
+         c.done = sequence;
+         LockSupport.unpark(c.thread);
+      }
+      if (endOfBatch)
+      {
+         // Pairs with the check in awaitCredit: either the waiter sees the
+         // credit or this sees the waiter.
+         VarHandle.fullFence();
+         for (int i = 0; i < ncreditedInBatch; i++)
+         {
+            Queue<Thread> waiters = fundsWaiters.get(creditedInBatch[i]);
+            if (waiters != null)
+               for (Thread t : waiters)
+                  LockSupport.unpark(t);
+         }
+         ncreditedInBatch = 0;
+      }
+   }
+
+   /**
+    * Puts a request into the ring.
+    * @return the sequence of the request
+    */
+   private long publish(int type, int from, int to, long amount, Completion completion)
+   {
+      long sequence = ring.next();
+      ring.get(sequence).set(type, from, to, amount, completion);
+      ring.publish(sequence);
+      return sequence;
+   }
+
+   /**
+    * Puts a request into the ring and waits for its outcome. The request
+    * cannot be taken back once published, so the wait is not interruptible.
+    * @return the completion of the current thread, holding the outcome
+    */
+   private Completion call(int type, int from, int to, long amount)
+   {
+      Completion c = completions.get();
+      long sequence = publish(type, from, to, amount, c);
+      int tries = 0;
+      boolean interrupted = false;
+      while (c.done != sequence)
+      {
+         if (tries++ < SPIN_TRIES)
+            Thread.onSpinWait();
+         else
+         {
+            LockSupport.park(this);
+            if (Thread.interrupted()) interrupted = true;
+         }
+      }
+      if (interrupted) Thread.currentThread().interrupt();
+      return c;
+   }
+
+   /**
+    * Submits a transfer without waiting for it. The transfer is applied in
+    * order with all others, and dropped if the source account is short at
+    * that point.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    * @return the sequence number of the transfer
+    */
+   public long submit(int from, int to, long amount)
+   {
+      checkAccounts(from, to);
+      return publish(TransferEvent.TRANSFER, from, to, amount, null);
+   }
+
+   /**
+    * Transfers money if the source account covers the amount when the
+    * transfer is applied, without waiting for funds.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    * @return true if the money was moved
+    */
+   public boolean tryTransfer(int from, int to, long amount)
+   {
+      checkAccounts(from, to);
+      return call(TransferEvent.TRANSFER, from, to, amount).ok;
+   }
+
+   /**
+    * Transfers money from one account to another, waiting as long as it
+    * takes for the source account to hold enough money, like synch.Bank.
+    * A transfer that finds too little money waits for the next credit to the
+    * source account and then tries again.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    */
+   public void transfer(int from, int to, long amount) throws InterruptedException
+   {
+      checkAccounts(from, to);
+      while (true)
+      {
+         Completion c = call(TransferEvent.TRANSFER, from, to, amount);
+         if (c.ok) return;
+         awaitCredit(from, c.done);
+      }
+   }
+
+   /**
+    * Waits until an account is credited by a transfer that comes after a
+    * given sequence.
+    */
+   private void awaitCredit(int account, long after) throws InterruptedException
+   {
+      Thread current = Thread.currentThread();
+      Queue<Thread> waiters = fundsWaiters.get(account);
+      if (waiters == null)
+      {
+         fundsWaiters.compareAndSet(account, null, new ConcurrentLinkedQueue<>());
+         waiters = fundsWaiters.get(account);
+      }
+      waiters.add(current);
+      try
+      {
+         while (credited.get(account) <= after)
+         {
+            LockSupport.park(this);
+            if (Thread.interrupted()) throw new InterruptedException();
+         }
+      }
+      finally
+      {
+         waiters.remove(current);
+      }
+   }
+
+   private void checkAccounts(int from, int to)
+   {
+      Objects.checkIndex(from, accounts.length);
+      Objects.checkIndex(to, accounts.length);
+   }
+
+   /**
+    * Gets the balance of an account, as of the requests before this one.
+    * @param account the account number
+    * @return the balance, in cents
+    */
+   public long getBalance(int account)
+   {
+      Objects.checkIndex(account, accounts.length);
+      return call(TransferEvent.BALANCE, account, account, 0).value;
+   }
+
+   /**
+    * Gets the sum of all account balances. The apply stage adds them up
+    * between two transfers, so the sum is exact.
+    * @return the total balance, in cents
+    */
+   public long getTotalBalance()
+   {
+      return call(TransferEvent.TOTAL, 0, 0, 0).value;
+   }
+
+   /**
+    * Gets the number of transfers that went through.
+    * @return the number of applied transfers
+    */
+   public long getApplied()
+   {
+      return applied;
+   }
+
+   /**
+    * Gets the number of transfers that found too little money when applied,
+    * including those that were retried later.
+    * @return the number of rejected transfers
+    */
+   public long getRejected()
+   {
+      return rejected;
+   }
+
+   /**
+    * Gets the number of accounts in the bank.
+    * @return the number of accounts
+    */
+   public int size()
+   {
+      return accounts.length;
+   }
+
+   /**
+    * Lets the stages finish the requests published so far, then stops them.
+    * No requests may be made after this.
+    */
+   public void close()
+   {
+      long last = ring.cursor.get();
+      Sequence done = stages[stages.length - 1].sequence;
+      while (done.get() < last)
+         LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+      for (Thread t : threads)
+         t.interrupt();
+      try
+      {
+         for (Thread t : threads)
+            t.join();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+}
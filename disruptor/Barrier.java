@@ -0,0 +1,92 @@
+package disruptor;
+
+import java.lang.invoke.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Makes the stages of one ring wait for a sequence to advance, the way the
+ * chosen wait strategy says. Waiting is interruptible; that is how the stages
+ * are stopped.
+ */
+class Barrier
+{
+   private static final int SPIN_TRIES = 100;
+
+   private final WaitStrategy strategy;
+   private final Lock lock = new ReentrantLock();
+   private final Condition advanced = lock.newCondition();
+   private volatile int blocked;
+
+   Barrier(WaitStrategy strategy)
+   {
+      this.strategy = strategy;
+   }
+
+   /**
+    * Waits until a sequence reaches a given value.
+    * @param sequence the value to wait for
+    * @param dependency the sequence that has to reach it
+    * @return the value of the dependency, at least sequence
+    */
+   long waitFor(long sequence, Sequence dependency) throws InterruptedException
+   {
+      long available;
+      int tries = 0;
+      while ((available = dependency.get()) < sequence)
+      {
+         if (Thread.interrupted()) throw new InterruptedException();
+         if (strategy == WaitStrategy.BUSY_SPIN || tries++ < SPIN_TRIES)
+            Thread.onSpinWait();
+         else if (strategy == WaitStrategy.YIELD)
+            Thread.yield();
+         else
+            block(sequence, dependency);
+      }
+      return available;
+   }
+
+   private void block(long sequence, Sequence dependency) throws InterruptedException
+   {
+      lock.lock();
+      try
+      {
+         // Counting this waiter before checking the dependency pairs with the
+         // fence in signal(): either signal() sees the waiter or this check
+         // sees the new value.
+         blocked++;
+         try
+         {
+            while (dependency.get() < sequence)
+               advanced.await();
+         }
+         finally
+         {
+            blocked--;
+         }
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Tells the waiting stages that a sequence has advanced. Only the
+    * blocking strategy has anything to do, and only when a stage is blocked.
+    */
+   void signal()
+   {
+      if (strategy != WaitStrategy.BLOCK) return;
+      VarHandle.fullFence();
+      if (blocked == 0) return;
+      lock.lock();
+      try
+      {
+         advanced.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+}
@@ -0,0 +1,76 @@
+package disruptor;
+
+import java.util.concurrent.*;
+import money.*;
+
+/**
+ * This program pushes transfers through the ring-buffer bank as fast as a
+ * few producer threads can submit them, reports the total balance while they
+ * run, and ends with the throughput and a blocking transfer.
+ * @version 1.00 2026-10-15
+ */
+public class DisruptorBankTest
+{
+   public static final int NACCOUNTS = 100;
+   public static final long INITIAL_BALANCE = Money.ofUnits(1000);
+   public static final long MAX_AMOUNT = Money.ofUnits(100);
+   public static final int NPRODUCERS = 2;
+   public static final int SECONDS = 5;
+   public static final int REPORT_DELAY = 1000;
+
+   /**
+    * @param args the wait strategy: BUSY_SPIN, YIELD or BLOCK (the default)
+    */
+   public static void main(String[] args) throws InterruptedException
+   {
+      var strategy = WaitStrategy.valueOf(args.length > 0 ? args[0] : "BLOCK");
+      var bank = new Bank(NACCOUNTS, INITIAL_BALANCE, Bank.DEFAULT_BUFFER_SIZE, strategy,
+         transferLog.TransferSink.discard());
+      long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(SECONDS);
+      var producers = new Thread[NPRODUCERS];
+      for (int p = 0; p < NPRODUCERS; p++)
+      {
+         producers[p] = new Thread(() -> {
+            var random = ThreadLocalRandom.current();
+            while (System.nanoTime() < end)
+               for (int i = 0; i < 1000; i++)
+                  bank.submit(random.nextInt(NACCOUNTS), random.nextInt(NACCOUNTS),
+                     random.nextLong(MAX_AMOUNT));
+         });
+         producers[p].start();
+      }
+
+      long start = System.nanoTime();
+      while (System.nanoTime() < end)
+      {
+         Thread.sleep(REPORT_DELAY);
+         System.out.printf("Total Balance: %10s%n", Money.format(bank.getTotalBalance()));
+      }
+      for (Thread t : producers)
+         t.join();
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("%s: %.1f million transfers/s, %d applied, %d rejected%n", strategy,
+         (bank.getApplied() + bank.getRejected()) / seconds / 1e6, bank.getApplied(),
+         bank.getRejected());
+
+      // Empty account 0, then show that a transfer out of it waits for a credit.
+      bank.transfer(0, 1, bank.getBalance(0));
+      long amount = bank.getBalance(1);
+      var waiter = new Thread(() -> {
+         try
+         {
+            bank.transfer(0, 2, amount);
+            System.out.println("Waiting transfer went through");
+         }
+         catch (InterruptedException e)
+         {
+         }
+      });
+      waiter.start();
+      Thread.sleep(100);
+      bank.transfer(1, 0, amount);
+      waiter.join();
+      System.out.printf("Total Balance: %10s%n", Money.format(bank.getTotalBalance()));
+      bank.close();
+   }
+}
@@ -0,0 +1,93 @@
+package disruptor;
+
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * A ring of preallocated transfer events that any number of producers write
+ * to. A producer claims a sequence number, fills in the event of that slot
+ * and publishes it. Sequences are claimed in order but may be published out
+ * of order, so each slot records the lap of the ring on which it was last
+ * published, and the first stage only reads up to the first gap.
+ */
+class RingBuffer
+{
+   private final TransferEvent[] events;
+   private final int mask;
+   private final int shift;
+   private final AtomicIntegerArray published;
+   private final Barrier barrier;
+
+   // The highest claimed sequence.
+   final Sequence cursor = new Sequence(-1);
+
+   // The sequence of the last stage; a slot can be reused once it has passed.
+   private Sequence gating;
+
+   /**
+    * Constructs a ring buffer.
+    * @param size the number of slots, a power of two
+    * @param barrier the barrier to signal when a slot is published
+    */
+   RingBuffer(int size, Barrier barrier)
+   {
+      if (size <= 0 || Integer.bitCount(size) != 1)
+         throw new IllegalArgumentException("size " + size);
+      events = new TransferEvent[size];
+      for (int i = 0; i < size; i++)
+         events[i] = new TransferEvent();
+      mask = size - 1;
+      shift = Integer.numberOfTrailingZeros(size);
+      published = new AtomicIntegerArray(size);
+      for (int i = 0; i < size; i++)
+         published.set(i, -1);
+      this.barrier = barrier;
+   }
+
+   void setGating(Sequence gating)
+   {
+      this.gating = gating;
+   }
+
+   /**
+    * Claims the next slot, waiting while the ring is full.
+    * @return the sequence of the claimed slot
+    */
+   long next()
+   {
+      long sequence = cursor.getAndIncrement() + 1;
+      long wrapPoint = sequence - events.length;
+      while (wrapPoint > gating.get())
+         LockSupport.parkNanos(1);
+      return sequence;
+   }
+
+   TransferEvent get(long sequence)
+   {
+      return events[(int) sequence & mask];
+   }
+
+   /**
+    * Makes a claimed slot visible to the first stage.
+    * @param sequence the sequence of the slot
+    */
+   void publish(long sequence)
+   {
+      published.lazySet((int) sequence & mask, (int) (sequence >>> shift));
+      barrier.signal();
+   }
+
+   /**
+    * Finds the end of the run of published slots that starts at a sequence.
+    * @param low the first sequence to check
+    * @param high the last claimed sequence
+    * @return the last published sequence before the first gap, low - 1 if
+    * low itself is not published yet
+    */
+   long highestPublished(long low, long high)
+   {
+      for (long s = low; s <= high; s++)
+         if (published.get((int) s & mask) != (int) (s >>> shift)) return s - 1;
+      return high;
+   }
+}
@@ -0,0 +1,71 @@
+package disruptor;
+
+import java.lang.invoke.*;
+
+/**
+ * A sequence number that one thread advances and others read. The value sits
+ * between two blocks of padding fields, so two sequences never share a cache
+ * line and the stages that advance them do not slow each other down.
+ */
+class Sequence extends RightPadding
+{
+   private static final VarHandle VALUE;
+
+   static
+   {
+      try
+      {
+         VALUE = MethodHandles.lookup().findVarHandle(Value.class, "value", long.class);
+      }
+      catch (ReflectiveOperationException e)
+      {
+         throw new ExceptionInInitializerError(e);
+      }
+   }
+
+   /**
+    * Constructs a sequence.
+    * @param initial the initial value
+    */
+   Sequence(long initial)
+   {
+      value = initial;
+   }
+
+   long get()
+   {
+      return value;
+   }
+
+   /**
+    * Sets the value without a full fence. Writes made before this one are
+    * visible to a thread that reads the new value.
+    */
+   void setRelease(long newValue)
+   {
+      VALUE.setRelease(this, newValue);
+   }
+
+   long getAndIncrement()
+   {
+      return (long) VALUE.getAndAdd(this, 1L);
+   }
+}
+
+// Subclasses keep their fields after those of their superclass, which is what
+// keeps the padding on both sides of the value.
+
+class LeftPadding
+{
+   long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class Value extends LeftPadding
+{
+   volatile long value;
+}
+
+class RightPadding extends Value
+{
+   long p9, p10, p11, p12, p13, p14, p15;
+}
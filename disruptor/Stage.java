@@ -0,0 +1,85 @@
+package disruptor;
+
+/**
+ * One stage of the pipeline: a loop that hands every event to a handler in
+ * sequence order, as soon as the stage it depends on is done with it. The
+ * handler is told which event ends the run that was available at once, so
+ * it can do per-batch work there.
+ */
+class Stage implements Runnable
+{
+   /**
+    * The work of a stage.
+    */
+   interface Handler
+   {
+      /**
+       * Handles one event.
+       * @param event the event
+       * @param sequence the sequence of the event
+       * @param endOfBatch true if this is the last event available right now
+       */
+      void onEvent(TransferEvent event, long sequence, boolean endOfBatch);
+   }
+
+   private final RingBuffer ring;
+   private final Barrier barrier;
+   private final Sequence dependency;
+   private final Handler handler;
+
+   // The last sequence this stage is done with.
+   final Sequence sequence = new Sequence(-1);
+
+   /**
+    * Constructs a stage.
+    * @param ring the ring buffer
+    * @param barrier the barrier to wait on and to signal
+    * @param dependency the sequence of the previous stage, or null for the
+    * first stage, which follows the producers
+    * @param handler the work of the stage
+    */
+   Stage(RingBuffer ring, Barrier barrier, Sequence dependency, Handler handler)
+   {
+      this.ring = ring;
+      this.barrier = barrier;
+      this.dependency = dependency;
+      this.handler = handler;
+   }
+
+   /**
+    * Runs the stage until its thread is interrupted.
+    */
+   public void run()
+   {
+      long next = sequence.get() + 1;
+      try
+      {
+         while (true)
+         {
+            long available;
+            if (dependency == null)
+            {
+               available = ring.highestPublished(next, barrier.waitFor(next, ring.cursor));
+               if (available < next)
+               {
+                  // Claimed but not yet published; the producer is about to.
+                  if (Thread.interrupted()) return;
+                  Thread.onSpinWait();
+                  continue;
+               }
+            }
+            else
+               available = barrier.waitFor(next, dependency);
+
+            for (long s = next; s <= available; s++)
+               handler.onEvent(ring.get(s), s, s == available);
+            sequence.setRelease(available);
+            barrier.signal();
+            next = available + 1;
+         }
+      }
+      catch (InterruptedException e)
+      {
+      }
+   }
+}
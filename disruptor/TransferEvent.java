@@ -0,0 +1,35 @@
+package disruptor;
+
+/**
+ * A slot of the ring buffer. The events are allocated once, when the ring is
+ * built, and every request that passes through the slot overwrites them.
+ * Producers fill in the request, the applying stage fills in the result, and
+ * the later stages only read.
+ */
+class TransferEvent
+{
+   static final int TRANSFER = 0;
+   static final int BALANCE = 1;
+   static final int TOTAL = 2;
+
+   int type;
+   int from;
+   int to;
+   long amount;
+
+   // Set by the applying stage.
+   boolean ok;
+   long value;
+
+   // The producer waiting for the result, or null if nobody waits.
+   Bank.Completion completion;
+
+   void set(int type, int from, int to, long amount, Bank.Completion completion)
+   {
+      this.type = type;
+      this.from = from;
+      this.to = to;
+      this.amount = amount;
+      this.completion = completion;
+   }
+}
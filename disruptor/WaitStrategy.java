@@ -0,0 +1,27 @@
+package disruptor;
+
+/**
+ * How the stages of the pipeline wait for work. The choice trades the CPU
+ * burnt by idle stages for the latency of picking up a new transfer.
+ */
+public enum WaitStrategy
+{
+   /**
+    * Spin on the sequence. The lowest latency, but every stage keeps a core
+    * busy even when there is nothing to do; only for machines with a core to
+    * spare for each stage.
+    */
+   BUSY_SPIN,
+
+   /**
+    * Spin for a while, then yield the processor between checks. Close to
+    * busy spinning in latency, and lets other threads run on a loaded box.
+    */
+   YIELD,
+
+   /**
+    * Block on a condition until a producer or the previous stage signals.
+    * Idle stages use no CPU, at the price of a wakeup on every hand-off.
+    */
+   BLOCK
+}
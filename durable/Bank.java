@@ -0,0 +1,212 @@
+package durable;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import money.*;
+
+/**
+ * A bank whose balances survive a restart. Every transfer is appended to a
+ * write-ahead log before it is acknowledged, and the balances are saved in a
+ * snapshot from time to time. On startup the bank loads the latest snapshot
+ * and replays only the log records that came after it. Balances and amounts
+ * are whole cents, see {@link Money}.
+ */
+public class Bank implements Closeable
+{
+   public static final int SEGMENT_RECORDS = 1 << 20;
+
+   private final Path directory;
+   private final long[] accounts;
+   private Lock bankLock;
+   private Condition[] sufficientFunds;
+   private final WriteAheadLog wal;
+   private long lastSeq;
+   private final ScheduledExecutorService snapshots;
+   private final long recoveredSeq;
+
+   /**
+    * Opens the bank stored in a directory, creating it if the directory holds
+    * no snapshot or log yet.
+    * @param directory the directory that holds the log and the snapshots
+    * @param n the number of accounts of a new bank
+    * @param initialBalance the initial balance for each account of a new
+    * bank, in cents
+    * @param flushInterval the time between two group commits to disk
+    * @param snapshotInterval the time between two snapshots
+    * @param unit the unit of both intervals
+    */
+   public Bank(Path directory, int n, long initialBalance, long flushInterval,
+      long snapshotInterval, TimeUnit unit) throws IOException
+   {
+      this.directory = directory;
+      Files.createDirectories(directory);
+      SnapshotFile snapshot = SnapshotFile.loadLatest(directory);
+      if (snapshot == null)
+      {
+         // The total never changes, so if it fits, no single balance can overflow.
+         Math.multiplyExact(n, initialBalance);
+         accounts = new long[n];
+         Arrays.fill(accounts, initialBalance);
+         lastSeq = 0;
+      }
+      else
+      {
+         accounts = snapshot.balances;
+         lastSeq = snapshot.seq;
+      }
+      lastSeq = WriteAheadLog.replay(directory, lastSeq, (from, to, amount) -> {
+         accounts[from] -= amount;
+         accounts[to] = Money.add(accounts[to], amount);
+      });
+      recoveredSeq = lastSeq;
+
+      bankLock = new ReentrantLock();
+      sufficientFunds = new Condition[accounts.length];
+      for (int i = 0; i < accounts.length; i++)
+         sufficientFunds[i] = bankLock.newCondition();
+      wal = new WriteAheadLog(directory, lastSeq, SEGMENT_RECORDS, flushInterval, unit);
+
+      snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+         var t = new Thread(r, "bank-snapshot");
+         t.setDaemon(true);
+         return t;
+      });
+      snapshots.scheduleWithFixedDelay(() -> {
+         try
+         {
+            snapshot();
+         }
+         catch (IOException e)
+         {
+            e.printStackTrace();
+         }
+      }, snapshotInterval, snapshotInterval, unit);
+   }
+
+   /**
+    * Transfers money from one account to another. The call returns once the
+    * transfer has reached the disk with the next group commit.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    */
+   public void transfer(int from, int to, long amount) throws InterruptedException, IOException
+   {
+      long seq;
+      bankLock.lock();
+      try
+      {
+         while (accounts[from] < amount)
+            sufficientFunds[from].await();
+         seq = wal.append(from, to, amount);
+         lastSeq = seq;
+         accounts[from] -= amount;
+         accounts[to] = Money.add(accounts[to], amount);
+         sufficientFunds[to].signalAll();
+      }
+      finally
+      {
+         bankLock.unlock();
+      }
+      wal.awaitDurable(seq);
+   }
+
+   /**
+    * Saves all balances and drops the log segments the snapshot makes
+    * redundant. Only the copy of the balances is made under the bank lock.
+    */
+   public void snapshot() throws IOException
+   {
+      SnapshotFile snapshot;
+      bankLock.lock();
+      try
+      {
+         if (lastSeq == 0) return;
+         snapshot = new SnapshotFile(lastSeq, accounts.clone());
+      }
+      finally
+      {
+         bankLock.unlock();
+      }
+      // The log must be on disk up to the snapshot before older segments go.
+      try
+      {
+         wal.awaitDurable(snapshot.seq);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         return;
+      }
+      snapshot.write(directory);
+      wal.truncate(snapshot.seq);
+   }
+
+   /**
+    * Gets the sum of all account balances.
+    * @return the total balance, in cents
+    */
+   public long getTotalBalance()
+   {
+      bankLock.lock();
+      try
+      {
+         long sum = 0;
+
+         for (long a : accounts)
+            sum += a;
+
+         return sum;
+      }
+      finally
+      {
+         bankLock.unlock();
+      }
+   }
+
+   /**
+    * Gets the number of log records replayed or restored when the bank was
+    * opened.
+    * @return the sequence number of the last transfer recovered at startup
+    */
+   public long getRecoveredSeq()
+   {
+      return recoveredSeq;
+   }
+
+   /**
+    * Gets the number of accounts in the bank.
+    * @return the number of accounts
+    */
+   public int size()
+   {
+      return accounts.length;
+   }
+
+   /**
+    * Stops taking snapshots, waits for a snapshot in progress to finish, then
+    * forces the log to disk.
+    */
+   public void close() throws IOException
+   {
+      snapshots.shutdown();
+      boolean interrupted = false;
+      while (true)
+      {
+         try
+         {
+            snapshots.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            break;
+         }
+         catch (InterruptedException e)
+         {
+            interrupted = true;
+         }
+      }
+      if (interrupted) Thread.currentThread().interrupt();
+      wal.close();
+   }
+}
@@ -0,0 +1,67 @@
+package durable;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import money.*;
+
+/**
+ * This program shows a bank that keeps its balances across restarts. Stop it
+ * at any time and run it again: it picks up with the balances it had.
+ * @version 1.00 2026-10-15
+ */
+public class DurableBankTest
+{
+   public static final int NACCOUNTS = 100;
+   public static final long INITIAL_BALANCE = Money.ofUnits(1000);
+   public static final long MAX_AMOUNT = Money.ofUnits(1000);
+   public static final int DELAY = 10;
+   public static final int FLUSH_INTERVAL = 5;
+   public static final int SNAPSHOT_INTERVAL = 2000;
+   public static final int REPORT_DELAY = 1000;
+
+   /**
+    * @param args the directory to keep the bank in (default: bank-data)
+    */
+   public static void main(String[] args) throws IOException, InterruptedException
+   {
+      Path directory = Paths.get(args.length > 0 ? args[0] : "bank-data");
+      long start = System.nanoTime();
+      var bank = new Bank(directory, NACCOUNTS, INITIAL_BALANCE, FLUSH_INTERVAL,
+         SNAPSHOT_INTERVAL, TimeUnit.MILLISECONDS);
+      System.out.printf("Recovered %d transfers in %d ms%n", bank.getRecoveredSeq(),
+         TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+      for (int i = 0; i < bank.size(); i++)
+      {
+         int fromAccount = i;
+         Runnable r = () -> {
+            try
+            {
+               while (true)
+               {
+                  int toAccount = (int) (bank.size() * Math.random());
+                  long amount = (long) (MAX_AMOUNT * Math.random());
+                  bank.transfer(fromAccount, toAccount, amount);
+                  Thread.sleep((int) (DELAY * Math.random()));
+               }
+            }
+            catch (IOException e)
+            {
+               e.printStackTrace();
+            }
+            catch (InterruptedException e)
+            {
+            }
+         };
+         var t = new Thread(r);
+         t.start();
+      }
+
+      while (true)
+      {
+         Thread.sleep(REPORT_DELAY);
+         System.out.printf("Total Balance: %10s%n", Money.format(bank.getTotalBalance()));
+      }
+   }
+}
@@ -0,0 +1,106 @@
+package durable;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * A compact image of all balances as of one log sequence number. A snapshot
+ * is written to a temporary file, forced to disk and then renamed, so a
+ * snapshot file is either complete or absent. Balances are whole cents.
+ */
+class SnapshotFile
+{
+   private static final int MAGIC = 0x42414e4b;
+   // Version 2 stores the balances as cents (long) instead of double.
+   private static final int FORMAT_VERSION = 2;
+   private static final int HEADER_SIZE = 16;
+   private static final String PREFIX = "snapshot-";
+   private static final String SUFFIX = ".bin";
+
+   final long seq;
+   final long[] balances;
+
+   SnapshotFile(long seq, long[] balances)
+   {
+      this.seq = seq;
+      this.balances = balances;
+   }
+
+   /**
+    * Writes this snapshot and deletes the older ones.
+    * @param directory the directory holding the snapshots
+    */
+   void write(Path directory) throws IOException
+   {
+      ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 8 * balances.length + 8);
+      buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(seq);
+      buffer.asLongBuffer().put(balances);
+      buffer.position(buffer.position() + 8 * balances.length);
+      var crc = new CRC32();
+      crc.update(buffer.duplicate().flip());
+      buffer.putLong(crc.getValue());
+      buffer.flip();
+
+      Path target = path(directory, seq);
+      Path temp = directory.resolve(target.getFileName() + ".tmp");
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+      {
+         while (buffer.hasRemaining())
+            channel.write(buffer);
+         channel.force(true);
+      }
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+
+      for (Path p : list(directory))
+         if (!p.equals(target)) Files.delete(p);
+   }
+
+   /**
+    * Loads the newest snapshot that is intact.
+    * @param directory the directory holding the snapshots
+    * @return the snapshot, or null if there is none
+    * @throws IOException if a snapshot was written in another format
+    */
+   static SnapshotFile loadLatest(Path directory) throws IOException
+   {
+      List<Path> paths = list(directory);
+      for (int i = paths.size() - 1; i >= 0; i--)
+      {
+         ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(paths.get(i)));
+         if (buffer.remaining() < HEADER_SIZE + 8) continue;
+         var crc = new CRC32();
+         crc.update(buffer.duplicate().limit(buffer.limit() - 8));
+         if (buffer.getInt() != MAGIC || buffer.getLong(buffer.limit() - 8) != crc.getValue()) continue;
+         int version = buffer.getInt();
+         if (version != FORMAT_VERSION)
+            throw new IOException("Unsupported version " + version + " of " + paths.get(i));
+         long seq = buffer.getLong();
+         var balances = new long[(buffer.remaining() - 8) / 8];
+         buffer.asLongBuffer().get(balances);
+         return new SnapshotFile(seq, balances);
+      }
+      return null;
+   }
+
+   private static List<Path> list(Path directory) throws IOException
+   {
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX))
+      {
+         var result = new ArrayList<Path>();
+         for (Path p : entries)
+            result.add(p);
+         Collections.sort(result);
+         return result;
+      }
+   }
+
+   private static Path path(Path directory, long seq)
+   {
+      return directory.resolve(String.format("%s%020d%s", PREFIX, seq, SUFFIX));
+   }
+}
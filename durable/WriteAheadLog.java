@@ -0,0 +1,318 @@
+package durable;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.zip.*;
+
+/**
+ * An append-only log of transfers kept in memory-mapped segment files. Each
+ * record carries its sequence number and a checksum, so replay stops at the
+ * first record that was not completely written before a crash. A record is
+ * 32 bytes: the sequence number (long), from (int), to (int), the amount in
+ * cents (long), a CRC-32 of those 24 bytes (int) and the format version (int). A flusher
+ * thread forces the mapped pages to disk at a fixed interval, making every
+ * record appended since the previous flush durable at once.
+ */
+class WriteAheadLog implements Closeable
+{
+   static final int RECORD_SIZE = 32;
+   // Version 2 stores the amount as cents (long) instead of double. Version 1
+   // records wrote 0 where the version now goes.
+   static final int FORMAT_VERSION = 2;
+   private static final String PREFIX = "wal-";
+   private static final String SUFFIX = ".log";
+
+   /**
+    * Receives the transfers read back from the log.
+    */
+   interface Replayer
+   {
+      void apply(int from, int to, long amount);
+   }
+
+   /**
+    * A segment file. Only the segment being appended to is mapped.
+    */
+   private static class Segment
+   {
+      final long firstSeq;
+      final Path path;
+      FileChannel channel;
+      MappedByteBuffer buffer;
+
+      Segment(long firstSeq, Path path)
+      {
+         this.firstSeq = firstSeq;
+         this.path = path;
+      }
+
+      static Segment create(Path directory, long firstSeq, int records) throws IOException
+      {
+         var segment = new Segment(firstSeq, segmentPath(directory, firstSeq));
+         segment.channel = FileChannel.open(segment.path, StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+         segment.buffer = segment.channel.map(FileChannel.MapMode.READ_WRITE, 0,
+            (long) records * RECORD_SIZE);
+         return segment;
+      }
+   }
+
+   private final Path directory;
+   private final int segmentRecords;
+   private final long flushNanos;
+   private final CRC32 crc = new CRC32();
+
+   // Segments are guarded by the monitor of this log; appends are serialized
+   // by the caller.
+   private final Deque<Segment> segments = new ArrayDeque<>();
+   private Segment current;
+   private long nextSeq;
+
+   private volatile long appendedSeq;
+   private volatile long durableSeq;
+   private final Lock durableLock = new ReentrantLock();
+   private final Condition durable = durableLock.newCondition();
+
+   private volatile boolean closed;
+   private final Thread flusher;
+
+   /**
+    * Opens a log that continues after the given sequence number. A new segment
+    * is always started, so records past a torn write are never reused.
+    * Segments that start past the given sequence number are moved aside.
+    * @param directory the directory holding the segment files
+    * @param lastSeq the sequence number of the last record already applied
+    * @param segmentRecords the number of records per segment file
+    * @param flushInterval the time between two flushes to disk
+    * @param unit the unit of the flush interval
+    */
+   WriteAheadLog(Path directory, long lastSeq, int segmentRecords, long flushInterval,
+      TimeUnit unit) throws IOException
+   {
+      this.directory = directory;
+      this.segmentRecords = segmentRecords;
+      flushNanos = unit.toNanos(flushInterval);
+      for (Path p : listSegments(directory))
+      {
+         if (firstSeq(p) > lastSeq) quarantine(p);
+         else segments.add(new Segment(firstSeq(p), p));
+      }
+      nextSeq = lastSeq + 1;
+      appendedSeq = lastSeq;
+      durableSeq = lastSeq;
+      current = Segment.create(directory, nextSeq, segmentRecords);
+      segments.add(current);
+
+      flusher = new Thread(this::flushLoop, "wal-flusher");
+      flusher.setDaemon(true);
+      flusher.start();
+   }
+
+   /**
+    * Appends a transfer to the log. Callers must serialize appends, and must
+    * append transfers in the order they apply them.
+    * @return the sequence number of the new record
+    */
+   long append(int from, int to, long amount) throws IOException
+   {
+      if (!current.buffer.hasRemaining()) rotate();
+      long seq = nextSeq++;
+      ByteBuffer record = current.buffer;
+      int start = record.position();
+      record.putLong(seq).putInt(from).putInt(to).putLong(amount);
+      crc.reset();
+      crc.update(record.duplicate().position(start).limit(start + 24));
+      record.putInt((int) crc.getValue()).putInt(FORMAT_VERSION);
+      appendedSeq = seq;
+      return seq;
+   }
+
+   private synchronized void rotate() throws IOException
+   {
+      current.buffer.force();
+      current.channel.close();
+      current = Segment.create(directory, nextSeq, segmentRecords);
+      segments.add(current);
+   }
+
+   /**
+    * Waits until a record has been forced to disk.
+    * @param seq the sequence number of the record
+    */
+   void awaitDurable(long seq) throws InterruptedException
+   {
+      if (durableSeq >= seq) return;
+      durableLock.lock();
+      try
+      {
+         while (durableSeq < seq)
+            durable.await();
+      }
+      finally
+      {
+         durableLock.unlock();
+      }
+   }
+
+   private void flushLoop()
+   {
+      while (!closed)
+      {
+         LockSupport.parkNanos(flushNanos);
+         flush();
+      }
+   }
+
+   /**
+    * Forces every record appended so far to disk and releases the callers
+    * waiting for them. Earlier segments were forced when they filled up.
+    */
+   private void flush()
+   {
+      long seq;
+      synchronized (this)
+      {
+         seq = appendedSeq;
+         if (seq == durableSeq) return;
+         current.buffer.force();
+      }
+      durableLock.lock();
+      try
+      {
+         durableSeq = seq;
+         durable.signalAll();
+      }
+      finally
+      {
+         durableLock.unlock();
+      }
+   }
+
+   /**
+    * Deletes the segments whose records are all covered by a snapshot.
+    * @param snapshotSeq the sequence number of the last record in the snapshot
+    */
+   synchronized void truncate(long snapshotSeq) throws IOException
+   {
+      while (segments.size() > 1)
+      {
+         Iterator<Segment> iter = segments.iterator();
+         Segment first = iter.next();
+         Segment second = iter.next();
+         if (second.firstSeq > snapshotSeq + 1) return;
+         segments.removeFirst();
+         Files.deleteIfExists(first.path);
+      }
+   }
+
+   /**
+    * Forces the log to disk and stops the flusher.
+    */
+   public void close() throws IOException
+   {
+      closed = true;
+      LockSupport.unpark(flusher);
+      try
+      {
+         flusher.join();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      flush();
+      synchronized (this)
+      {
+         current.channel.close();
+      }
+   }
+
+   /**
+    * Replays the records that follow a snapshot. Segments that end before the
+    * snapshot are skipped without being read.
+    * @param directory the directory holding the segment files
+    * @param afterSeq the sequence number of the last record in the snapshot
+    * @param replayer receives each replayed transfer
+    * @return the sequence number of the last record replayed, or afterSeq if
+    * there were none
+    * @throws IOException if the log was written in another format
+    */
+   static long replay(Path directory, long afterSeq, Replayer replayer) throws IOException
+   {
+      List<Path> paths = listSegments(directory);
+      long expected = afterSeq + 1;
+      var crc = new CRC32();
+      for (int i = 0; i < paths.size(); i++)
+      {
+         if (i + 1 < paths.size() && firstSeq(paths.get(i + 1)) <= expected) continue;
+         long first = firstSeq(paths.get(i));
+         if (first > expected) break;
+         try (FileChannel channel = FileChannel.open(paths.get(i), StandardOpenOption.READ))
+         {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.position((int) Math.min(buffer.limit(), (expected - first) * RECORD_SIZE));
+            while (buffer.remaining() >= RECORD_SIZE)
+            {
+               int start = buffer.position();
+               long seq = buffer.getLong();
+               int from = buffer.getInt();
+               int to = buffer.getInt();
+               long amount = buffer.getLong();
+               int checksum = buffer.getInt();
+               int version = buffer.getInt();
+               crc.reset();
+               crc.update(buffer.duplicate().position(start).limit(start + 24));
+               if (seq != expected || checksum != (int) crc.getValue()) break;
+               if (version != FORMAT_VERSION)
+                  throw new IOException("Unsupported version " + version + " of " + paths.get(i));
+               replayer.apply(from, to, amount);
+               expected++;
+            }
+         }
+      }
+      return expected - 1;
+   }
+
+   /**
+    * Moves aside a segment that starts past the recovered end. Replay stopped
+    * before it, so nothing in it was applied, but it may hold records that a
+    * damaged record before it cut off. It is renamed rather than deleted, so
+    * that it can be examined, and no longer counts as a segment.
+    * @param path the segment file
+    */
+   private static void quarantine(Path path) throws IOException
+   {
+      Path target = path.resolveSibling(path.getFileName() + ".orphaned-" + System.currentTimeMillis());
+      Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+      System.err.println("Warning: " + path + " starts past the recovered end of the log, moved to "
+         + target);
+   }
+
+   private static List<Path> listSegments(Path directory) throws IOException
+   {
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX))
+      {
+         var result = new ArrayList<Path>();
+         for (Path p : entries)
+            result.add(p);
+         result.sort(Comparator.comparingLong(WriteAheadLog::firstSeq));
+         return result;
+      }
+   }
+
+   private static long firstSeq(Path path)
+   {
+      String name = path.getFileName().toString();
+      return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+   }
+
+   private static Path segmentPath(Path directory, long firstSeq)
+   {
+      return directory.resolve(String.format("%s%020d%s", PREFIX, firstSeq, SUFFIX));
+   }
+}
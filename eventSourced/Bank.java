@@ -0,0 +1,335 @@
+package eventSourced;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import money.*;
+
+/**
+ * A bank that keeps the full history of its transfers. Every transfer is
+ * stored as an event, and every checkpointInterval events a background
+ * thread writes the balances to a checkpoint. The balances at any point in
+ * the history are found by loading the checkpoint before that point and
+ * replaying the events after it, at most checkpointInterval of them once the
+ * checkpoints have caught up, so queries about the past cost the same
+ * however long the history grows. Balances and amounts are whole cents, see
+ * {@link Money}.
+ */
+public class Bank implements Closeable
+{
+   public static final int DEFAULT_CHECKPOINT_INTERVAL = 1 << 20;
+
+   private final Path directory;
+   private final int checkpointInterval;
+   private final long[] accounts;
+   private final Lock bankLock = new ReentrantLock();
+   private final Condition[] sufficientFunds;
+   private final EventLog log;
+   private final NavigableSet<Long> checkpoints;
+   private long lastSeq;
+   private long segmentStart;
+   private final long recoveredSeq;
+   private final ExecutorService checkpointer;
+
+   /**
+    * Opens the bank stored in a directory, creating it if the directory holds
+    * no checkpoint yet.
+    * @param directory the directory that holds the events and checkpoints
+    * @param n the number of accounts of a new bank
+    * @param initialBalance the initial balance for each account of a new
+    * bank, in cents
+    * @param checkpointInterval the number of events between two checkpoints
+    */
+   public Bank(Path directory, int n, long initialBalance, int checkpointInterval)
+      throws IOException
+   {
+      if (checkpointInterval <= 0)
+         throw new IllegalArgumentException("checkpointInterval " + checkpointInterval);
+      this.directory = directory;
+      this.checkpointInterval = checkpointInterval;
+      Files.createDirectories(directory);
+      checkpoints = new ConcurrentSkipListSet<>(Checkpoint.list(directory));
+      if (checkpoints.isEmpty())
+      {
+         // The total never changes, so if it fits, no single balance can overflow.
+         Math.multiplyExact(n, initialBalance);
+         accounts = new long[n];
+         Arrays.fill(accounts, initialBalance);
+         Checkpoint.write(directory, 0, accounts);
+         checkpoints.add(0L);
+      }
+      else
+         accounts = Checkpoint.load(directory, checkpoints.last());
+
+      // Replay the segment after the latest checkpoint. If it is full, the
+      // bank stopped before writing the next checkpoint; write it now.
+      segmentStart = checkpoints.last();
+      long replayed;
+      while ((replayed = EventLog.replaySegment(directory, segmentStart, checkpointInterval,
+         (from, to, amount) -> {
+            accounts[from] -= amount;
+            accounts[to] += amount;
+         })) == checkpointInterval)
+      {
+         segmentStart += checkpointInterval;
+         Checkpoint.write(directory, segmentStart, accounts);
+         checkpoints.add(segmentStart);
+      }
+      lastSeq = segmentStart + replayed;
+      recoveredSeq = lastSeq;
+      log = new EventLog(directory, segmentStart, replayed);
+
+      sufficientFunds = new Condition[accounts.length];
+      for (int i = 0; i < accounts.length; i++)
+         sufficientFunds[i] = bankLock.newCondition();
+
+      checkpointer = Executors.newSingleThreadExecutor(r -> {
+         var t = new Thread(r, "bank-checkpoint");
+         t.setDaemon(true);
+         return t;
+      });
+   }
+
+   /**
+    * Transfers money from one account to another, waiting as long as it takes
+    * for the source account to hold enough money. The event is buffered and
+    * reaches the disk with later events; see {@link #force}.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    * @return the sequence number of the transfer
+    */
+   public long transfer(int from, int to, long amount) throws InterruptedException, IOException
+   {
+      bankLock.lock();
+      try
+      {
+         while (accounts[from] < amount)
+            sufficientFunds[from].await();
+         // A full segment is ended before the next transfer changes
+         // anything, so if that fails, this transfer fails as a whole and the
+         // next one tries again.
+         if (lastSeq - segmentStart >= checkpointInterval)
+         {
+            log.startSegment(lastSeq);
+            segmentStart = lastSeq;
+            writeCheckpoint(lastSeq, accounts.clone());
+         }
+         log.append(from, to, amount);
+         lastSeq++;
+         accounts[from] -= amount;
+         accounts[to] += amount;
+         sufficientFunds[to].signalAll();
+         return lastSeq;
+      }
+      finally
+      {
+         bankLock.unlock();
+      }
+   }
+
+   /**
+    * Writes a checkpoint in the background, so that the transfers do not
+    * wait for it to reach the disk. Queries use the checkpoint once it is
+    * durable; until then, and for good if writing it fails, they replay
+    * from the checkpoint before it.
+    * @param seq the number of transfers the balances include
+    * @param balances a copy of the balances
+    */
+   private void writeCheckpoint(long seq, long[] balances)
+   {
+      checkpointer.execute(() -> {
+         try
+         {
+            Checkpoint.write(directory, seq, balances);
+            checkpoints.add(seq);
+         }
+         catch (IOException e)
+         {
+            e.printStackTrace();
+         }
+      });
+   }
+
+   /**
+    * Gets the balance of an account at a point in the history.
+    * @param account the account number
+    * @param seq the number of transfers to include, from 0 for the initial
+    * balance to {@link #getLastSeq} for the current one
+    * @return the balance after transfer seq, in cents
+    */
+   public long balanceAt(int account, long seq) throws IOException
+   {
+      Objects.checkIndex(account, accounts.length);
+      long checkpoint = prepareQuery(seq);
+      var balance = new long[] { Checkpoint.readBalance(directory, checkpoint, account) };
+      EventLog.replay(directory, checkpoint, seq - checkpoint, (from, to, amount) -> {
+         if (from == account) balance[0] -= amount;
+         if (to == account) balance[0] += amount;
+      });
+      return balance[0];
+   }
+
+   /**
+    * Gets the balances of all accounts at a point in the history.
+    * @param seq the number of transfers to include
+    * @return the balances after transfer seq, in cents
+    */
+   public long[] balancesAt(long seq) throws IOException
+   {
+      long checkpoint = prepareQuery(seq);
+      long[] balances = Checkpoint.load(directory, checkpoint);
+      EventLog.replay(directory, checkpoint, seq - checkpoint, (from, to, amount) -> {
+         balances[from] -= amount;
+         balances[to] += amount;
+      });
+      return balances;
+   }
+
+   /**
+    * Makes the events up to a sequence number readable from the files and
+    * finds the checkpoint to replay them from. The files are append-only, so
+    * the query itself runs without the lock.
+    * @return the sequence number of the latest checkpoint at or before seq
+    */
+   private long prepareQuery(long seq) throws IOException
+   {
+      bankLock.lock();
+      try
+      {
+         if (seq < 0 || seq > lastSeq) throw new IllegalArgumentException("seq " + seq);
+         if (seq > segmentStart) log.flush();
+      }
+      finally
+      {
+         bankLock.unlock();
+      }
+      return checkpoints.floor(seq);
+   }
+
+   /**
+    * Forces every event so far to disk.
+    */
+   public void force() throws IOException
+   {
+      bankLock.lock();
+      try
+      {
+         log.force();
+      }
+      finally
+      {
+         bankLock.unlock();
+      }
+   }
+
+   /**
+    * Gets the current balance of an account.
+    * @param account the account number
+    * @return the balance, in cents
+    */
+   public long getBalance(int account)
+   {
+      bankLock.lock();
+      try
+      {
+         return accounts[account];
+      }
+      finally
+      {
+         bankLock.unlock();
+      }
+   }
+
+   /**
+    * Gets the sum of all account balances.
+    * @return the total balance, in cents
+    */
+   public long getTotalBalance()
+   {
+      bankLock.lock();
+      try
+      {
+         long sum = 0;
+
+         for (long a : accounts)
+            sum += a;
+
+         return sum;
+      }
+      finally
+      {
+         bankLock.unlock();
+      }
+   }
+
+   /**
+    * Gets the sequence number of the latest transfer.
+    * @return the number of transfers in the history
+    */
+   public long getLastSeq()
+   {
+      bankLock.lock();
+      try
+      {
+         return lastSeq;
+      }
+      finally
+      {
+         bankLock.unlock();
+      }
+   }
+
+   /**
+    * Gets the number of transfers found in the history when the bank was
+    * opened.
+    * @return the sequence number of the last recovered transfer
+    */
+   public long getRecoveredSeq()
+   {
+      return recoveredSeq;
+   }
+
+   /**
+    * Gets the number of accounts in the bank.
+    * @return the number of accounts
+    */
+   public int size()
+   {
+      return accounts.length;
+   }
+
+   /**
+    * Waits for the pending checkpoints, then forces the history to disk and
+    * closes the current segment.
+    */
+   public void close() throws IOException
+   {
+      checkpointer.shutdown();
+      boolean interrupted = false;
+      while (true)
+      {
+         try
+         {
+            checkpointer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            break;
+         }
+         catch (InterruptedException e)
+         {
+            interrupted = true;
+         }
+      }
+      if (interrupted) Thread.currentThread().interrupt();
+      bankLock.lock();
+      try
+      {
+         log.close();
+      }
+      finally
+      {
+         bankLock.unlock();
+      }
+   }
+}
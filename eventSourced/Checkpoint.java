@@ -0,0 +1,123 @@
+package eventSourced;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * The balances of all accounts after a given number of transfers. The
+ * balances are stored at fixed offsets, so a single balance can be read
+ * without loading the rest. A checkpoint is written to a temporary file,
+ * forced to disk and then renamed, so a checkpoint file is either complete
+ * or absent.
+ */
+class Checkpoint
+{
+   private static final int MAGIC = 0x45564e54;
+   // Version 2 added checksums to the event records; the version of the
+   // checkpoints stands for the whole directory.
+   private static final int FORMAT_VERSION = 2;
+   private static final int HEADER_SIZE = 24;
+   private static final String PREFIX = "checkpoint-";
+   private static final String SUFFIX = ".bin";
+
+   private Checkpoint()
+   {
+   }
+
+   /**
+    * Writes a checkpoint.
+    * @param directory the directory holding the checkpoints
+    * @param seq the number of transfers the balances include
+    * @param balances the balances, in cents
+    */
+   static void write(Path directory, long seq, long[] balances) throws IOException
+   {
+      ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 8 * balances.length + 8);
+      buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(seq).putInt(balances.length).putInt(0);
+      buffer.asLongBuffer().put(balances);
+      buffer.position(buffer.position() + 8 * balances.length);
+      var crc = new CRC32();
+      crc.update(buffer.duplicate().flip());
+      buffer.putLong(crc.getValue());
+      buffer.flip();
+
+      Path target = path(directory, seq);
+      Path temp = directory.resolve(target.getFileName() + ".tmp");
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+      {
+         while (buffer.hasRemaining())
+            channel.write(buffer);
+         channel.force(true);
+      }
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   /**
+    * Loads all balances of a checkpoint, checking that it is intact.
+    * @param directory the directory holding the checkpoints
+    * @param seq the sequence number of the checkpoint
+    * @return the balances, in cents
+    */
+   static long[] load(Path directory, long seq) throws IOException
+   {
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path(directory, seq)));
+      var crc = new CRC32();
+      crc.update(buffer.duplicate().limit(Math.max(0, buffer.limit() - 8)));
+      if (buffer.remaining() < HEADER_SIZE + 8 || buffer.getInt() != MAGIC
+         || buffer.getInt() != FORMAT_VERSION || buffer.getLong() != seq
+         || buffer.getLong(buffer.limit() - 8) != crc.getValue())
+         throw new IOException("Damaged checkpoint " + path(directory, seq));
+      var balances = new long[buffer.getInt()];
+      buffer.position(HEADER_SIZE);
+      buffer.asLongBuffer().get(balances);
+      return balances;
+   }
+
+   /**
+    * Reads one balance of a checkpoint, without reading the others.
+    * @param directory the directory holding the checkpoints
+    * @param seq the sequence number of the checkpoint
+    * @param account the account number
+    * @return the balance, in cents
+    */
+   static long readBalance(Path directory, long seq, int account) throws IOException
+   {
+      try (FileChannel channel = FileChannel.open(path(directory, seq), StandardOpenOption.READ))
+      {
+         ByteBuffer buffer = ByteBuffer.allocate(8);
+         long position = HEADER_SIZE + 8L * account;
+         while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+         return buffer.getLong(0);
+      }
+   }
+
+   /**
+    * Lists the checkpoints in a directory.
+    * @param directory the directory holding the checkpoints
+    * @return the sequence numbers of the checkpoints, in ascending order
+    */
+   static NavigableSet<Long> list(Path directory) throws IOException
+   {
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX))
+      {
+         var result = new TreeSet<Long>();
+         for (Path p : entries)
+         {
+            String name = p.getFileName().toString();
+            result.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+         }
+         return result;
+      }
+   }
+
+   private static Path path(Path directory, long seq)
+   {
+      return directory.resolve(String.format("%s%020d%s", PREFIX, seq, SUFFIX));
+   }
+}
@@ -0,0 +1,192 @@
+package eventSourced;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.zip.*;
+
+/**
+ * The history of all transfers, as fixed-size binary records in append-only
+ * segment files. Each segment starts right after a checkpoint and is named
+ * after the sequence number of that checkpoint, so the record of transfer s
+ * sits at a known offset and can be reached without reading what comes
+ * before it.
+ *
+ * A record is 24 bytes: from (int), to (int), the amount in cents (long), a
+ * CRC-32 of those 16 bytes (int) and four bytes of padding. The sequence
+ * number is implied by the position. Replay stops at the first record whose
+ * checksum does not match, so a record torn by a crash, or a tail of zeros,
+ * ends the history instead of being applied, and the bank then cuts it off.
+ */
+class EventLog implements Closeable
+{
+   static final int RECORD_SIZE = 24;
+   private static final int BUFFER_SIZE = 4096 * RECORD_SIZE;
+   private static final String PREFIX = "events-";
+   private static final String SUFFIX = ".log";
+
+   /**
+    * Receives the transfers read back from the log.
+    */
+   interface Replayer
+   {
+      void apply(int from, int to, long amount);
+   }
+
+   private final Path directory;
+   private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+   private final CRC32 crc = new CRC32();
+   private FileChannel channel;
+
+   /**
+    * Opens the segment that follows a checkpoint for appending. Anything past
+    * the records that were replayed is cut off.
+    * @param directory the directory holding the segment files
+    * @param checkpointSeq the sequence number of the checkpoint
+    * @param records the number of records of the segment that were replayed
+    */
+   EventLog(Path directory, long checkpointSeq, long records) throws IOException
+   {
+      this.directory = directory;
+      channel = FileChannel.open(segmentPath(directory, checkpointSeq), StandardOpenOption.CREATE,
+         StandardOpenOption.WRITE);
+      channel.truncate(records * RECORD_SIZE);
+      channel.position(records * RECORD_SIZE);
+   }
+
+   /**
+    * Appends a transfer. Records are buffered until the buffer fills up or
+    * the log is flushed. Callers must serialize appends.
+    */
+   void append(int from, int to, long amount) throws IOException
+   {
+      int start = buffer.position();
+      buffer.putInt(from).putInt(to).putLong(amount);
+      crc.reset();
+      crc.update(buffer.duplicate().position(start).limit(start + 16));
+      buffer.putInt((int) crc.getValue()).putInt(0);
+      if (!buffer.hasRemaining()) flush();
+   }
+
+   /**
+    * Writes the buffered records to the segment file, where readers can see
+    * them. This does not force them to disk.
+    */
+   void flush() throws IOException
+   {
+      buffer.flip();
+      while (buffer.hasRemaining())
+         channel.write(buffer);
+      buffer.clear();
+   }
+
+   /**
+    * Ends the current segment and starts the one after a new checkpoint.
+    * @param checkpointSeq the sequence number of the new checkpoint
+    */
+   void startSegment(long checkpointSeq) throws IOException
+   {
+      flush();
+      channel.force(false);
+      // Open the new segment first, so that a failure leaves the current
+      // one in use.
+      FileChannel next = FileChannel.open(segmentPath(directory, checkpointSeq),
+         StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      FileChannel previous = channel;
+      channel = next;
+      previous.close();
+   }
+
+   /**
+    * Writes the buffered records and forces the segment to disk.
+    */
+   void force() throws IOException
+   {
+      flush();
+      channel.force(false);
+   }
+
+   public void close() throws IOException
+   {
+      force();
+      channel.close();
+   }
+
+   /**
+    * Reads back the transfers that follow a checkpoint, going on into the
+    * segments after its own where the checkpoints that start them are not
+    * written yet or could not be written.
+    * @param directory the directory holding the segment files
+    * @param checkpointSeq the sequence number of the checkpoint
+    * @param maxRecords the number of records to read at most
+    * @param replayer receives each transfer, in order
+    * @return the number of records read, less than maxRecords if the history
+    * is shorter
+    */
+   static long replay(Path directory, long checkpointSeq, long maxRecords, Replayer replayer)
+      throws IOException
+   {
+      long total = 0;
+      long start = checkpointSeq;
+      while (total < maxRecords)
+      {
+         long records = replaySegment(directory, start, maxRecords - total, replayer);
+         if (records == 0) break;
+         total += records;
+         start += records;
+         if (!Files.exists(segmentPath(directory, start))) break;
+      }
+      return total;
+   }
+
+   /**
+    * Reads back the transfers of the segment that follows a checkpoint.
+    * @param directory the directory holding the segment files
+    * @param checkpointSeq the sequence number of the checkpoint
+    * @param maxRecords the number of records to read at most
+    * @param replayer receives each transfer, in order
+    * @return the number of records read, less than maxRecords if the segment
+    * is shorter or missing, or ends in a damaged record
+    */
+   static long replaySegment(Path directory, long checkpointSeq, long maxRecords,
+      Replayer replayer) throws IOException
+   {
+      Path path = segmentPath(directory, checkpointSeq);
+      if (!Files.exists(path)) return 0;
+      try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ))
+      {
+         long end = Math.min(maxRecords, in.size() / RECORD_SIZE) * RECORD_SIZE;
+         ByteBuffer chunk = ByteBuffer.allocate(BUFFER_SIZE);
+         var crc = new CRC32();
+         long position = 0;
+         while (position < end)
+         {
+            chunk.clear().limit((int) Math.min(BUFFER_SIZE, end - position));
+            while (chunk.hasRemaining())
+               if (in.read(chunk, position + chunk.position()) < 0) throw new EOFException();
+            chunk.flip();
+            while (chunk.hasRemaining())
+            {
+               int start = chunk.position();
+               int from = chunk.getInt();
+               int to = chunk.getInt();
+               long amount = chunk.getLong();
+               int checksum = chunk.getInt();
+               chunk.getInt();
+               crc.reset();
+               crc.update(chunk.duplicate().position(start).limit(start + 16));
+               if (checksum != (int) crc.getValue()) return (position + start) / RECORD_SIZE;
+               replayer.apply(from, to, amount);
+            }
+            position += chunk.limit();
+         }
+         return end / RECORD_SIZE;
+      }
+   }
+
+   private static Path segmentPath(Path directory, long checkpointSeq)
+   {
+      return directory.resolve(String.format("%s%020d%s", PREFIX, checkpointSeq, SUFFIX));
+   }
+}
@@ -0,0 +1,78 @@
+package eventSourced;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import money.*;
+
+/**
+ * This program keeps the full history of a bank and queries it. While the
+ * transfers run it reports the current total and, for a random point in the
+ * past, the total rebuilt from the history and the time a single balance
+ * query took. Run it again to continue the same history.
+ * @version 1.00 2026-10-15
+ */
+public class EventSourcedBankTest
+{
+   public static final int NACCOUNTS = 100;
+   public static final long INITIAL_BALANCE = Money.ofUnits(1000);
+   public static final long MAX_AMOUNT = Money.ofUnits(1000);
+   public static final int CHECKPOINT_INTERVAL = 10_000;
+   public static final int DELAY = 10;
+   public static final int REPORT_DELAY = 1000;
+
+   /**
+    * @param args the directory to keep the bank in (default: bank-events)
+    */
+   public static void main(String[] args) throws IOException, InterruptedException
+   {
+      Path directory = Paths.get(args.length > 0 ? args[0] : "bank-events");
+      long start = System.nanoTime();
+      var bank = new Bank(directory, NACCOUNTS, INITIAL_BALANCE, CHECKPOINT_INTERVAL);
+      System.out.printf("Recovered %d transfers in %d ms%n", bank.getRecoveredSeq(),
+         TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+      for (int i = 0; i < bank.size(); i++)
+      {
+         int fromAccount = i;
+         Runnable r = () -> {
+            try
+            {
+               while (true)
+               {
+                  int toAccount = (int) (bank.size() * Math.random());
+                  long amount = (long) (MAX_AMOUNT * Math.random());
+                  bank.transfer(fromAccount, toAccount, amount);
+                  Thread.sleep((int) (DELAY * Math.random()));
+               }
+            }
+            catch (IOException e)
+            {
+               e.printStackTrace();
+            }
+            catch (InterruptedException e)
+            {
+            }
+         };
+         var t = new Thread(r);
+         t.setDaemon(true);
+         t.start();
+      }
+
+      while (true)
+      {
+         Thread.sleep(REPORT_DELAY);
+         long last = bank.getLastSeq();
+         long seq = ThreadLocalRandom.current().nextLong(last + 1);
+         long total = 0;
+         for (long b : bank.balancesAt(seq))
+            total += b;
+         long queryStart = System.nanoTime();
+         long balance = bank.balanceAt(0, seq);
+         long queryNanos = System.nanoTime() - queryStart;
+         System.out.printf("Total Balance: %10s after %d transfers; %10s after %d;"
+            + " account 0 then: %s (%d us)%n", Money.format(bank.getTotalBalance()), last,
+            Money.format(total), seq, Money.format(balance), queryNanos / 1000);
+      }
+   }
+}
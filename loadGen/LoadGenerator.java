@@ -0,0 +1,218 @@
+package loadGen;
+
+import bankBench.*;
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Drives transfers against a bank for a fixed time and records their
+ * latencies.
+ *
+ * In closed-loop mode each worker issues a transfer, waits for it, thinks for
+ * a random time and repeats, like the customers in SynchBankTest. In open-loop
+ * mode transfers are scheduled at a fixed rate whether or not earlier ones
+ * have finished, and latency is measured from the scheduled start, so time
+ * spent queued behind a saturated bank is counted. That is the mode to use
+ * for finding the saturation point.
+ */
+public class LoadGenerator
+{
+   private final TransferTarget target;
+   private final AccountPicker picker;
+   private final long maxAmount;
+   private ThreadFactory threadFactory = Thread::new;
+
+   /**
+    * Constructs a load generator.
+    * @param target the bank under load
+    * @param picker chooses the accounts of each transfer
+    * @param maxAmount the bound on the amount to transfer, in cents
+    */
+   public LoadGenerator(TransferTarget target, AccountPicker picker, long maxAmount)
+   {
+      this.target = target;
+      this.picker = picker;
+      this.maxAmount = maxAmount;
+   }
+
+   /**
+    * Sets the factory for the worker threads.
+    * @param threadFactory the factory
+    */
+   public void setThreadFactory(ThreadFactory threadFactory)
+   {
+      this.threadFactory = threadFactory;
+   }
+
+   /**
+    * Runs a closed loop with one worker per owned account: worker i always
+    * transfers out of account i, like the threads of SynchBankTest. With more
+    * workers than accounts, the accounts are shared out in turn.
+    * @param workers the number of workers
+    * @param maxDelayMillis the longest think time between two transfers
+    * @param duration how long to run
+    * @param unit the unit of the duration
+    * @return the results of the run
+    */
+   public Report runClosedLoop(int workers, int maxDelayMillis, long duration, TimeUnit unit)
+      throws InterruptedException
+   {
+      // A worker that thinks for maxDelay / 2 on average expects to start a
+      // transfer that often; stalls longer than that hide transfers.
+      long expectedInterval = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis) / 2;
+      return run(workers, duration, unit, (worker, end, histogram, completed) -> {
+         var random = ThreadLocalRandom.current();
+         while (System.nanoTime() < end)
+         {
+            long start = System.nanoTime();
+            target.transfer(worker % picker.size(), picker.next(), random.nextLong(maxAmount));
+            histogram.recordCorrected(System.nanoTime() - start, expectedInterval);
+            completed[worker]++;
+            if (maxDelayMillis > 0) Thread.sleep(random.nextInt(maxDelayMillis));
+         }
+      });
+   }
+
+   /**
+    * Runs an open loop that schedules transfers at a fixed rate. A pool of
+    * workers takes the scheduled transfers in order; when all of them are busy
+    * the schedule falls behind and the delay shows up in the latencies.
+    * @param ratePerSecond the number of transfers to start per second
+    * @param workers the number of workers
+    * @param duration how long to run
+    * @param unit the unit of the duration
+    * @return the results of the run
+    */
+   public Report runOpenLoop(double ratePerSecond, int workers, long duration, TimeUnit unit)
+      throws InterruptedException
+   {
+      long interval = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+      var next = new AtomicLong();
+      long begin = System.nanoTime();
+      return run(workers, duration, unit, (worker, end, histogram, completed) -> {
+         var random = ThreadLocalRandom.current();
+         while (true)
+         {
+            long intended = begin + next.getAndIncrement() * interval;
+            if (intended >= end) return;
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0)
+            {
+               LockSupport.parkNanos(wait);
+               if (Thread.interrupted()) throw new InterruptedException();
+            }
+            target.transfer(picker.next(), picker.next(), random.nextLong(maxAmount));
+            histogram.record(System.nanoTime() - intended);
+            completed[worker]++;
+         }
+      });
+   }
+
+   /**
+    * The loop of one worker.
+    */
+   private interface Worker
+   {
+      void run(int worker, long end, LatencyHistogram histogram, long[] completed)
+         throws InterruptedException;
+   }
+
+   private Report run(int workers, long duration, TimeUnit unit, Worker worker)
+      throws InterruptedException
+   {
+      long start = System.nanoTime();
+      long end = start + unit.toNanos(duration);
+      var histograms = new LatencyHistogram[workers];
+      var completed = new long[workers];
+      var threads = new Thread[workers];
+      for (int i = 0; i < workers; i++)
+      {
+         var histogram = new LatencyHistogram();
+         histograms[i] = histogram;
+         int index = i;
+         Runnable r = () -> {
+            try
+            {
+               worker.run(index, end, histogram, completed);
+            }
+            catch (InterruptedException e)
+            {
+            }
+         };
+         threads[i] = threadFactory.newThread(r);
+         threads[i].start();
+      }
+
+      // Workers blocked in the bank at the end are interrupted, and the
+      // transfer they were waiting for is not counted.
+      TimeUnit.NANOSECONDS.sleep(Math.max(0, end - System.nanoTime()));
+      for (Thread t : threads)
+         t.interrupt();
+      var report = new Report(System.nanoTime() - start);
+      for (int i = 0; i < workers; i++)
+      {
+         threads[i].join();
+         report.latencies.add(histograms[i]);
+         report.completed += completed[i];
+      }
+      return report;
+   }
+
+   /**
+    * The results of a run.
+    */
+   public static class Report
+   {
+      private final long elapsedNanos;
+      private final LatencyHistogram latencies = new LatencyHistogram();
+      private long completed;
+
+      Report(long elapsedNanos)
+      {
+         this.elapsedNanos = elapsedNanos;
+      }
+
+      /**
+       * Gets the number of completed transfers.
+       * @return the number of transfers
+       */
+      public long getCompleted()
+      {
+         return completed;
+      }
+
+      /**
+       * Gets the latencies of the completed transfers. In closed-loop mode
+       * the histogram also holds the values added to correct for coordinated
+       * omission, so its count can exceed the number of transfers.
+       * @return the latency histogram
+       */
+      public LatencyHistogram getLatencies()
+      {
+         return latencies;
+      }
+
+      /**
+       * Gets the number of completed transfers per second.
+       * @return the throughput
+       */
+      public double getThroughput()
+      {
+         return completed * 1e9 / elapsedNanos;
+      }
+
+      /**
+       * Prints a summary of the run.
+       * @param out the stream to print to
+       */
+      public void print(PrintStream out)
+      {
+         out.printf("%.0f transfers/s, latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us%n",
+            getThroughput(), latencies.getValueAtPercentile(50) / 1000.0,
+            latencies.getValueAtPercentile(99) / 1000.0,
+            latencies.getValueAtPercentile(99.9) / 1000.0, latencies.getMax() / 1000.0);
+      }
+   }
+}
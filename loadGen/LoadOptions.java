@@ -0,0 +1,113 @@
+package loadGen;
+
+import bankBench.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The command-line options shared by the bank test programs:
+ *   --mode closed|open   closed loop with think time (default) or fixed rate
+ *   --seconds 10         how long to run
+ *   --accounts 100       number of accounts (default: set by the program)
+ *   --workers n          number of workers (default: one per account)
+ *   --threads platform   run the workers on platform or virtual threads
+ *   --rate 5000          transfers per second in open-loop mode
+ *   --zipf 0.99          Zipf skew of the destination accounts
+ *   --hot 5              number of hot accounts...
+ *   --hot-fraction 0.8   ...and the share of transfers that go to them
+ */
+public class LoadOptions
+{
+   private final Map<String, String> options = new HashMap<>();
+
+   /**
+    * Parses the options.
+    * @param args the command-line arguments
+    */
+   public LoadOptions(String[] args)
+   {
+      for (int i = 0; i < args.length; i += 2)
+      {
+         if (!args[i].startsWith("--") || i + 1 == args.length)
+            throw new IllegalArgumentException("Expected --option value, found " + args[i]);
+         options.put(args[i].substring(2), args[i + 1]);
+      }
+   }
+
+   /**
+    * Gets an option.
+    * @param name the option name, without the leading dashes
+    * @param defaultValue the value to use if the option is absent
+    * @return the option value
+    */
+   public String get(String name, String defaultValue)
+   {
+      return options.getOrDefault(name, defaultValue);
+   }
+
+   /**
+    * Gets an integer option.
+    * @param name the option name, without the leading dashes
+    * @param defaultValue the value to use if the option is absent
+    * @return the option value
+    */
+   public int getInt(String name, int defaultValue)
+   {
+      String value = get(name, String.valueOf(defaultValue));
+      try
+      {
+         return Integer.parseInt(value);
+      }
+      catch (NumberFormatException e)
+      {
+         throw new IllegalArgumentException("--" + name + " expects an integer, found " + value);
+      }
+   }
+
+   /**
+    * Gets a numeric option.
+    * @param name the option name, without the leading dashes
+    * @param defaultValue the value to use if the option is absent
+    * @return the option value
+    */
+   public double getDouble(String name, double defaultValue)
+   {
+      String value = get(name, String.valueOf(defaultValue));
+      try
+      {
+         return Double.parseDouble(value);
+      }
+      catch (NumberFormatException e)
+      {
+         throw new IllegalArgumentException("--" + name + " expects a number, found " + value);
+      }
+   }
+
+   /**
+    * Runs a load generator with these options.
+    * @param target the bank under load
+    * @param accounts the number of accounts in the bank
+    * @param maxAmount the bound on the amount to transfer, in cents
+    * @param maxDelayMillis the longest think time in closed-loop mode
+    * @return the results of the run
+    */
+   public LoadGenerator.Report run(TransferTarget target, int accounts, long maxAmount,
+      int maxDelayMillis) throws InterruptedException
+   {
+      AccountPicker picker;
+      int hot = getInt("hot", 0);
+      if (hot > 0)
+         picker = AccountPicker.hot(accounts, hot, getDouble("hot-fraction", 0.8));
+      else
+         picker = new AccountPicker(accounts, getDouble("zipf", 0));
+      var generator = new LoadGenerator(target, picker, maxAmount);
+      if (get("threads", "platform").equals("virtual"))
+         generator.setThreadFactory(VirtualThreads.factory());
+      int workers = getInt("workers", accounts);
+      int seconds = getInt("seconds", 10);
+      if (get("mode", "closed").equals("open"))
+         return generator.runOpenLoop(getDouble("rate", 5000), workers, seconds, TimeUnit.SECONDS);
+      else
+         return generator.runClosedLoop(workers, maxDelayMillis, seconds, TimeUnit.SECONDS);
+   }
+}
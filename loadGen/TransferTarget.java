@@ -0,0 +1,15 @@
+package loadGen;
+
+/**
+ * The transfer method of the bank under load.
+ */
+public interface TransferTarget
+{
+   /**
+    * Transfers money from one account to another.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    */
+   void transfer(int from, int to, long amount) throws InterruptedException;
+}
@@ -0,0 +1,49 @@
+package loadGen;
+
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+
+/**
+ * Access to virtual threads, which need Java 21 or later. The examples are
+ * compiled for older releases too, so the virtual thread API is looked up
+ * reflectively.
+ */
+public class VirtualThreads
+{
+   private static final ThreadFactory FACTORY = lookUpFactory();
+
+   private static ThreadFactory lookUpFactory()
+   {
+      try
+      {
+         Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+         Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+         return (ThreadFactory) factory.invoke(builder);
+      }
+      catch (ReflectiveOperationException e)
+      {
+         return null;
+      }
+   }
+
+   /**
+    * Tells whether this Java runtime has virtual threads.
+    * @return true if virtual threads are available
+    */
+   public static boolean isSupported()
+   {
+      return FACTORY != null;
+   }
+
+   /**
+    * Gets a factory that makes a new virtual thread for every task.
+    * @return the factory
+    * @throws UnsupportedOperationException if virtual threads are not available
+    */
+   public static ThreadFactory factory()
+   {
+      if (FACTORY == null)
+         throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+      return FACTORY;
+   }
+}
@@ -0,0 +1,45 @@
+package lockFree;
+
+/**
+ * Storage for account balances in cents, with the atomic operations that a
+ * lock-free bank needs. Implementations decide where the balances live.
+ */
+public interface AccountStore
+{
+   /**
+    * Gets the number of accounts in the store.
+    * @return the number of accounts
+    */
+   int size();
+
+   /**
+    * Reads a balance.
+    * @param account the account number
+    * @return the balance
+    */
+   long get(int account);
+
+   /**
+    * Writes a balance.
+    * @param account the account number
+    * @param value the new balance
+    */
+   void set(int account, long value);
+
+   /**
+    * Atomically sets a balance if it currently has the expected value.
+    * @param account the account number
+    * @param expected the expected balance
+    * @param value the new balance
+    * @return true if the balance was changed
+    */
+   boolean compareAndSet(int account, long expected, long value);
+
+   /**
+    * Atomically adds to a balance.
+    * @param account the account number
+    * @param delta the amount to add
+    * @return the previous balance
+    */
+   long getAndAdd(int account, long delta);
+}
@@ -0,0 +1,99 @@
+package lockFree;
+
+/**
+ * A bank with a number of bank accounts that never blocks. Balances are kept
+ * as whole cents in an account store, so there is no floating-point drift.
+ */
+public class Bank
+{
+   private final AccountStore accounts;
+
+   /**
+    * Constructs the bank with its balances on the heap.
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    */
+   public Bank(int n, long initialBalance)
+   {
+      this(new HeapAccountStore(n), initialBalance);
+   }
+
+   /**
+    * Constructs the bank on a given store.
+    * @param accounts the store that holds the balances
+    * @param initialBalance the initial balance for each account, in cents
+    */
+   public Bank(AccountStore accounts, long initialBalance)
+   {
+      this.accounts = accounts;
+      for (int i = 0; i < accounts.size(); i++)
+         accounts.set(i, initialBalance);
+   }
+
+   /**
+    * Constructs the bank on a store that already holds the balances, such
+    * as a reopened {@link MappedAccountStore}.
+    * @param accounts the store that holds the balances
+    */
+   public Bank(AccountStore accounts)
+   {
+      this.accounts = accounts;
+   }
+
+   /**
+    * Transfers money from one account to another. The debit is a
+    * compare-and-set retry loop that gives up when the balance is too low;
+    * the credit is a plain atomic add.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    * @return true if the money was moved, false if the balance was insufficient
+    */
+   public boolean transfer(int from, int to, long amount)
+   {
+      long balance;
+      do
+      {
+         balance = accounts.get(from);
+         if (balance < amount) return false;
+      }
+      while (!accounts.compareAndSet(from, balance, balance - amount));
+      accounts.getAndAdd(to, amount);
+      return true;
+   }
+
+   /**
+    * Gets the balance of an account.
+    * @param account the account number
+    * @return the balance, in cents
+    */
+   public long getBalance(int account)
+   {
+      return accounts.get(account);
+   }
+
+   /**
+    * Gets the sum of all account balances. The accounts are read one at a
+    * time, so money that is between the debit and credit of a transfer is
+    * missing; the sum is exact whenever no transfer is in progress.
+    * @return the total balance, in cents
+    */
+   public long getTotalBalance()
+   {
+      long sum = 0;
+
+      for (int i = 0; i < accounts.size(); i++)
+         sum += accounts.get(i);
+
+      return sum;
+   }
+
+   /**
+    * Gets the number of accounts in the bank.
+    * @return the number of accounts
+    */
+   public int size()
+   {
+      return accounts.size();
+   }
+}
@@ -0,0 +1,148 @@
+package lockFree;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import money.*;
+
+/**
+ * This program measures how the layout of the balances affects a lock-free
+ * bank when threads never touch the same account. Each thread moves money
+ * back and forth between two accounts of its own, the first two times the
+ * thread count of all accounts, so any slowdown as threads are added comes
+ * from accounts sharing cache lines, not from contention on the accounts.
+ * With the dense layout four threads write to each cache line; the padded
+ * and interleaved layouts give each thread's accounts lines of their own.
+ * The difference only shows with at least as many cores as threads.
+ *
+ * Options (all optional, lists are comma-separated):
+ *   --layouts dense,padded,interleaved
+ *   --threads 1,2,4,8,16,32
+ *   --accounts 1024
+ *   --seconds 5
+ *   --warmup 1
+ * @version 1.00 2026-10-15
+ */
+public class FalseSharingBenchmark
+{
+   public static final long INITIAL_BALANCE = Money.ofUnits(1000);
+   public static final long AMOUNT = Money.ofUnits(1);
+
+   public static void main(String[] args) throws InterruptedException
+   {
+      Map<String, String> options = parse(args);
+      String[] layouts = options.getOrDefault("layouts", "dense,padded,interleaved").split(",");
+      int[] threadCounts = Arrays.stream(options.getOrDefault("threads", "1,2,4,8,16,32").split(","))
+         .mapToInt(Integer::parseInt).toArray();
+      int accounts = Integer.parseInt(options.getOrDefault("accounts", "1024"));
+      int seconds = Integer.parseInt(options.getOrDefault("seconds", "5"));
+      int warmup = Integer.parseInt(options.getOrDefault("warmup", "1"));
+
+      System.out.printf("%d processors%n", Runtime.getRuntime().availableProcessors());
+      System.out.printf("%-12s %7s %14s %14s %9s  %s%n", "layout", "threads", "transfers/s",
+         "per thread", "scaling", "total");
+      for (String layout : layouts)
+      {
+         double single = 0;
+         for (int threads : threadCounts)
+         {
+            if (2 * threads > accounts)
+               throw new IllegalArgumentException(threads + " threads need " + 2 * threads + " accounts");
+            run(layout, threads, accounts, warmup);
+            var bank = new Bank(create(layout, accounts), INITIAL_BALANCE);
+            long count = run(bank, threads, seconds);
+            double rate = count / (double) seconds;
+            if (single == 0) single = rate / threads;
+            long total = bank.getTotalBalance();
+            System.out.printf("%-12s %7d %14.0f %14.0f %8.2fx  %s%n", layout, threads, rate,
+               rate / threads, rate / single,
+               total == accounts * INITIAL_BALANCE ? "preserved" : "VIOLATED (" + total + ")");
+         }
+      }
+   }
+
+   /**
+    * Creates an account store with a given layout.
+    * @param layout dense, padded or interleaved
+    * @param n the number of accounts
+    * @return the store
+    */
+   static AccountStore create(String layout, int n)
+   {
+      if (layout.equals("dense")) return new HeapAccountStore(n);
+      if (layout.equals("padded")) return new PaddedAccountStore(n);
+      if (layout.equals("interleaved")) return new InterleavedAccountStore(n);
+      throw new IllegalArgumentException("Unknown layout " + layout);
+   }
+
+   private static void run(String layout, int nthreads, int accounts, int seconds)
+      throws InterruptedException
+   {
+      run(new Bank(create(layout, accounts), INITIAL_BALANCE), nthreads, seconds);
+   }
+
+   /**
+    * Runs the worker threads for a given time.
+    * @return the number of transfers made
+    */
+   private static long run(Bank bank, int nthreads, int seconds) throws InterruptedException
+   {
+      var start = new CountDownLatch(1);
+      var stop = new AtomicBoolean();
+      var counts = new long[nthreads];
+      var workers = new Thread[nthreads];
+      for (int t = 0; t < nthreads; t++)
+      {
+         int index = t;
+         Runnable r = () -> {
+            int a = 2 * index;
+            int b = a + 1;
+            long count = 0;
+            try
+            {
+               start.await();
+            }
+            catch (InterruptedException e)
+            {
+               return;
+            }
+            while (!stop.get())
+            {
+               // Checking the flag every 1024 transfers keeps its cache line
+               // out of the measurement.
+               for (int i = 0; i < 1024; i += 2)
+               {
+                  bank.transfer(a, b, AMOUNT);
+                  bank.transfer(b, a, AMOUNT);
+               }
+               count += 1024;
+            }
+            counts[index] = count;
+         };
+         workers[t] = new Thread(r);
+         workers[t].start();
+      }
+
+      start.countDown();
+      Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+      stop.set(true);
+      long total = 0;
+      for (int t = 0; t < nthreads; t++)
+      {
+         workers[t].join();
+         total += counts[t];
+      }
+      return total;
+   }
+
+   private static Map<String, String> parse(String[] args)
+   {
+      var options = new HashMap<String, String>();
+      for (int i = 0; i + 1 < args.length; i += 2)
+      {
+         if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected " + args[i]);
+         options.put(args[i].substring(2), args[i + 1]);
+      }
+      return options;
+   }
+}
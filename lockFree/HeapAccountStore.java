@@ -0,0 +1,34 @@
+package lockFree;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * An account store backed by an atomic array on the Java heap.
+ */
+public class HeapAccountStore implements AccountStore
+{
+   private final AtomicLongArray balances;
+
+   /**
+    * Constructs a store with all balances zero.
+    * @param n the number of accounts
+    */
+   public HeapAccountStore(int n)
+   {
+      balances = new AtomicLongArray(n);
+   }
+
+   public int size() { return balances.length(); }
+   public long get(int account) { return balances.get(account); }
+   public void set(int account, long value) { balances.set(account, value); }
+
+   public boolean compareAndSet(int account, long expected, long value)
+   {
+      return balances.compareAndSet(account, expected, value);
+   }
+
+   public long getAndAdd(int account, long delta)
+   {
+      return balances.getAndAdd(account, delta);
+   }
+}
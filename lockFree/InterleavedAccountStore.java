@@ -0,0 +1,54 @@
+package lockFree;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * An account store that spreads neighbouring accounts over different cache
+ * lines without using more memory. The balances are laid out as a matrix
+ * with one row per cache line, filled column by column: account i goes to
+ * line i % lines, so accounts i and i + 1 never share a line, and the
+ * accounts that do share one are lines apart.
+ *
+ * This helps when the threads work on runs of consecutive accounts, as when
+ * each thread owns a range. Accounts that are a multiple of lines apart
+ * still share a line.
+ */
+public class InterleavedAccountStore implements AccountStore
+{
+   private static final int LONGS_PER_LINE = 8;
+
+   private final int size;
+   private final int lines;
+   private final AtomicLongArray balances;
+
+   /**
+    * Constructs a store with all balances zero.
+    * @param n the number of accounts
+    */
+   public InterleavedAccountStore(int n)
+   {
+      size = n;
+      lines = (n + LONGS_PER_LINE - 1) / LONGS_PER_LINE;
+      balances = new AtomicLongArray(lines * LONGS_PER_LINE);
+   }
+
+   public int size() { return size; }
+   public long get(int account) { return balances.get(slot(account)); }
+   public void set(int account, long value) { balances.set(slot(account), value); }
+
+   public boolean compareAndSet(int account, long expected, long value)
+   {
+      return balances.compareAndSet(slot(account), expected, value);
+   }
+
+   public long getAndAdd(int account, long delta)
+   {
+      return balances.getAndAdd(slot(account), delta);
+   }
+
+   private int slot(int account)
+   {
+      if (account < 0 || account >= size) throw new IndexOutOfBoundsException("account " + account);
+      return account % lines * LONGS_PER_LINE + account / lines;
+   }
+}
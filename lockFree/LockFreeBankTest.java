@@ -0,0 +1,63 @@
+package lockFree;
+
+import money.*;
+
+/**
+ * This program shows a lock-free bank. A transfer that finds too little money
+ * fails instead of waiting, and the total stays exact because amounts are
+ * whole cents.
+ * @version 1.00 2026-10-15
+ */
+public class LockFreeBankTest
+{
+   public static final int NACCOUNTS = 100;
+   public static final long INITIAL_BALANCE = Money.ofUnits(1000);
+   public static final long MAX_AMOUNT = Money.ofUnits(1000);
+   public static final int DELAY = 10;
+   public static final int REPORT_DELAY = 1000;
+
+   /**
+    * @param args "offheap" to keep the balances outside the Java heap, "padded"
+    * to give each balance its own cache lines, or "interleaved" to keep
+    * neighbouring balances on different cache lines
+    */
+   public static void main(String[] args) throws InterruptedException
+   {
+      String layout = args.length > 0 ? args[0] : "";
+      AccountStore store;
+      if (layout.equals("offheap")) store = new OffHeapAccountStore(NACCOUNTS);
+      else if (layout.equals("padded")) store = new PaddedAccountStore(NACCOUNTS);
+      else if (layout.equals("interleaved")) store = new InterleavedAccountStore(NACCOUNTS);
+      else store = new HeapAccountStore(NACCOUNTS);
+      var bank = new Bank(store, INITIAL_BALANCE);
+      for (int i = 0; i < NACCOUNTS; i++)
+      {
+         int fromAccount = i;
+         Runnable r = () -> {
+            try
+            {
+               while (true)
+               {
+                  int toAccount = (int) (bank.size() * Math.random());
+                  long amount = (long) (MAX_AMOUNT * Math.random());
+                  if (bank.transfer(fromAccount, toAccount, amount))
+                     System.out.printf("%s %10s from %d to %d%n", Thread.currentThread(),
+                        Money.format(amount), fromAccount, toAccount);
+                  Thread.sleep((int) (DELAY * Math.random()));
+               }
+            }
+            catch (InterruptedException e)
+            {
+            }
+         };
+         var t = new Thread(r);
+         t.start();
+      }
+
+      while (true)
+      {
+         Thread.sleep(REPORT_DELAY);
+         System.out.printf("Total Balance: %10s%n", Money.format(bank.getTotalBalance()));
+      }
+   }
+}
@@ -0,0 +1,174 @@
+package lockFree;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * An account store that keeps the balances in a memory-mapped file. The
+ * balances are updated in place, so there is nothing to save at shutdown and
+ * nothing to load at startup: reopening the file maps it again and the bank
+ * can go on at once. Other processes on the same host can map the file
+ * read-only and see the balances change as they happen, without copying.
+ *
+ * The file holds a header with a magic number, the format version, the byte
+ * order of the balances and the number of accounts, followed by the balances
+ * in cents. The operating system writes changed pages back in its own time,
+ * which survives the process crashing but not the machine; call
+ * {@link #force} to put the balances on disk. A transfer that is cut short
+ * between its debit and its credit loses its amount.
+ */
+public class MappedAccountStore implements AccountStore
+{
+   private static final int MAGIC = 0x42414e4b;
+   private static final int FORMAT_VERSION = 1;
+   // A whole cache line, which also keeps the balances aligned for atomic access.
+   private static final int HEADER_SIZE = 64;
+   // A mapping is indexed by int, so the balances are mapped in chunks of
+   // 2^27 balances (1 GiB) each.
+   private static final int CHUNK_SHIFT = 27;
+   private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+   private static final VarHandle LONGS
+      = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+   private final int size;
+   private final MappedByteBuffer[] chunks;
+
+   private MappedAccountStore(FileChannel channel, int n, boolean readOnly) throws IOException
+   {
+      size = n;
+      chunks = new MappedByteBuffer[(int) (((long) n + CHUNK_MASK) >>> CHUNK_SHIFT)];
+      FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY
+         : FileChannel.MapMode.READ_WRITE;
+      for (int i = 0; i < chunks.length; i++)
+      {
+         int longs = Math.min(n - (i << CHUNK_SHIFT), 1 << CHUNK_SHIFT);
+         chunks[i] = channel.map(mode, HEADER_SIZE + ((long) i << CHUNK_SHIFT) * Long.BYTES,
+            (long) longs * Long.BYTES);
+         chunks[i].order(ByteOrder.nativeOrder());
+      }
+   }
+
+   /**
+    * Creates a file of balances. The file is filled under a temporary name
+    * and then renamed, so it either holds all accounts or does not exist.
+    * @param path the file to create; it must not exist yet
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    * @return the store, mapped for reading and writing
+    */
+   public static MappedAccountStore create(Path path, int n, long initialBalance) throws IOException
+   {
+      if (n < 0) throw new IllegalArgumentException("n " + n);
+      if (Files.exists(path)) throw new FileAlreadyExistsException(path.toString());
+      Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE))
+      {
+         ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+         header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(n)
+            .put((byte) (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0));
+         header.clear();
+         while (header.hasRemaining())
+            channel.write(header, header.position());
+         var store = new MappedAccountStore(channel, n, false);
+         for (int i = 0; i < n; i++)
+            store.set(i, initialBalance);
+         store.force();
+      }
+      Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+      return open(path, false);
+   }
+
+   /**
+    * Maps an existing file of balances.
+    * @param path the file
+    * @param readOnly true to map the file for reading only; writes then
+    * throw a {@link ReadOnlyBufferException}
+    * @return the store
+    */
+   public static MappedAccountStore open(Path path, boolean readOnly) throws IOException
+   {
+      try (FileChannel channel = readOnly ? FileChannel.open(path, StandardOpenOption.READ)
+         : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE))
+      {
+         ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+         while (header.hasRemaining())
+            if (channel.read(header, header.position()) < 0) throw new EOFException(path.toString());
+         header.flip();
+         if (header.getInt() != MAGIC) throw new IOException("Not an account file: " + path);
+         int version = header.getInt();
+         if (version != FORMAT_VERSION)
+            throw new IOException("Unsupported version " + version + " of " + path);
+         int n = header.getInt();
+         boolean littleEndian = header.get() == 1;
+         if (littleEndian != (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN))
+            throw new IOException(path + " was written with a different byte order");
+         if (n < 0 || channel.size() < HEADER_SIZE + (long) n * Long.BYTES)
+            throw new IOException("Damaged account file " + path);
+         // The mappings stay valid after the channel is closed.
+         return new MappedAccountStore(channel, n, readOnly);
+      }
+   }
+
+   /**
+    * Opens a file of balances, creating it if it does not exist.
+    * @param path the file
+    * @param n the number of accounts of a new file
+    * @param initialBalance the initial balance for each account of a new file
+    * @return the store, mapped for reading and writing
+    */
+   public static MappedAccountStore openOrCreate(Path path, int n, long initialBalance)
+      throws IOException
+   {
+      if (Files.exists(path)) return open(path, false);
+      return create(path, n, initialBalance);
+   }
+
+   /**
+    * Writes the changed balances to disk.
+    */
+   public void force()
+   {
+      for (MappedByteBuffer chunk : chunks)
+         chunk.force();
+   }
+
+   public int size()
+   {
+      return size;
+   }
+
+   public long get(int account)
+   {
+      return (long) LONGS.getVolatile(chunk(account), offset(account));
+   }
+
+   public void set(int account, long value)
+   {
+      LONGS.setVolatile(chunk(account), offset(account), value);
+   }
+
+   public boolean compareAndSet(int account, long expected, long value)
+   {
+      return LONGS.compareAndSet(chunk(account), offset(account), expected, value);
+   }
+
+   public long getAndAdd(int account, long delta)
+   {
+      return (long) LONGS.getAndAdd(chunk(account), offset(account), delta);
+   }
+
+   private ByteBuffer chunk(int account)
+   {
+      if (account < 0 || account >= size) throw new IndexOutOfBoundsException("account " + account);
+      return chunks[account >>> CHUNK_SHIFT];
+   }
+
+   private static int offset(int account)
+   {
+      return (account & CHUNK_MASK) << 3;
+   }
+}
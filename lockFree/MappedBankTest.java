@@ -0,0 +1,72 @@
+package lockFree;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import money.*;
+
+/**
+ * This program runs a lock-free bank on a memory-mapped file. Run it again
+ * and it continues with the balances it left, without loading them. Run it
+ * with "report" in another window and it maps the same file read-only and
+ * reports the balances as the first program changes them.
+ * @version 1.00 2026-10-15
+ */
+public class MappedBankTest
+{
+   public static final int NACCOUNTS = 100;
+   public static final long INITIAL_BALANCE = Money.ofUnits(1000);
+   public static final long MAX_AMOUNT = Money.ofUnits(1000);
+   public static final int DELAY = 10;
+   public static final int REPORT_DELAY = 1000;
+
+   /**
+    * @param args the file to keep the balances in (default: bank-accounts.dat),
+    * and "report" to only read them
+    */
+   public static void main(String[] args) throws IOException, InterruptedException
+   {
+      Path path = Paths.get(args.length > 0 ? args[0] : "bank-accounts.dat");
+      boolean report = args.length > 1 && args[1].equals("report");
+      long start = System.nanoTime();
+      MappedAccountStore store = report ? MappedAccountStore.open(path, true)
+         : MappedAccountStore.openOrCreate(path, NACCOUNTS, INITIAL_BALANCE);
+      var bank = new Bank(store);
+      System.out.printf("Opened %d accounts in %d us%n", bank.size(),
+         TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+
+      if (!report)
+      {
+         for (int i = 0; i < bank.size(); i++)
+         {
+            int fromAccount = i;
+            Runnable r = () -> {
+               try
+               {
+                  while (true)
+                  {
+                     int toAccount = (int) (bank.size() * Math.random());
+                     long amount = (long) (MAX_AMOUNT * Math.random());
+                     bank.transfer(fromAccount, toAccount, amount);
+                     Thread.sleep((int) (DELAY * Math.random()));
+                  }
+               }
+               catch (InterruptedException e)
+               {
+               }
+            };
+            var t = new Thread(r);
+            t.setDaemon(true);
+            t.start();
+         }
+      }
+
+      while (true)
+      {
+         Thread.sleep(REPORT_DELAY);
+         if (!report) store.force();
+         System.out.printf("Total Balance: %10s, account 0: %10s%n",
+            Money.format(bank.getTotalBalance()), Money.format(bank.getBalance(0)));
+      }
+   }
+}
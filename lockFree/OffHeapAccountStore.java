@@ -0,0 +1,75 @@
+package lockFree;
+
+import java.lang.invoke.*;
+import java.nio.*;
+
+/**
+ * An account store that keeps the balances outside the Java heap, in direct
+ * byte buffers accessed through atomic var handles. The garbage collector
+ * never scans the balances, and the ledger can be larger than the heap.
+ * Direct memory is capped by -XX:MaxDirectMemorySize, which defaults to the
+ * maximum heap size, so set it when the ledger outgrows the heap.
+ */
+public class OffHeapAccountStore implements AccountStore
+{
+   // A buffer is indexed by int, so the ledger is split into chunks of
+   // 2^27 balances (1 GiB) each.
+   private static final int CHUNK_SHIFT = 27;
+   private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+   private static final VarHandle LONGS
+      = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+   private final int size;
+   private final ByteBuffer[] chunks;
+
+   /**
+    * Constructs a store with all balances zero.
+    * @param n the number of accounts
+    */
+   public OffHeapAccountStore(int n)
+   {
+      size = n;
+      chunks = new ByteBuffer[(int) (((long) n + CHUNK_MASK) >>> CHUNK_SHIFT)];
+      for (int i = 0; i < chunks.length; i++)
+      {
+         int longs = Math.min(n - (i << CHUNK_SHIFT), 1 << CHUNK_SHIFT);
+         chunks[i] = ByteBuffer.allocateDirect(longs * Long.BYTES).order(ByteOrder.nativeOrder());
+      }
+   }
+
+   public int size()
+   {
+      return size;
+   }
+
+   public long get(int account)
+   {
+      return (long) LONGS.getVolatile(chunk(account), offset(account));
+   }
+
+   public void set(int account, long value)
+   {
+      LONGS.setVolatile(chunk(account), offset(account), value);
+   }
+
+   public boolean compareAndSet(int account, long expected, long value)
+   {
+      return LONGS.compareAndSet(chunk(account), offset(account), expected, value);
+   }
+
+   public long getAndAdd(int account, long delta)
+   {
+      return (long) LONGS.getAndAdd(chunk(account), offset(account), delta);
+   }
+
+   private ByteBuffer chunk(int account)
+   {
+      if (account < 0 || account >= size) throw new IndexOutOfBoundsException("account " + account);
+      return chunks[account >>> CHUNK_SHIFT];
+   }
+
+   private static int offset(int account)
+   {
+      return (account & CHUNK_MASK) << 3;
+   }
+}
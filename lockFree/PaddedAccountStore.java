@@ -0,0 +1,49 @@
+package lockFree;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * An account store that gives every balance a block of memory to itself, in
+ * the manner of @Contended fields. Threads updating different accounts then
+ * never write to the same cache line, at the price of 16 times the memory.
+ */
+public class PaddedAccountStore implements AccountStore
+{
+   // 16 longs are 128 bytes: a cache line, and the neighbouring line that
+   // the adjacent-line prefetcher of many x86 processors pulls in with it.
+   private static final int STRIDE_SHIFT = 4;
+
+   private final int size;
+   private final AtomicLongArray balances;
+
+   /**
+    * Constructs a store with all balances zero.
+    * @param n the number of accounts
+    */
+   public PaddedAccountStore(int n)
+   {
+      if (n > Integer.MAX_VALUE >> STRIDE_SHIFT) throw new IllegalArgumentException("n " + n);
+      size = n;
+      balances = new AtomicLongArray(n << STRIDE_SHIFT);
+   }
+
+   public int size() { return size; }
+   public long get(int account) { return balances.get(slot(account)); }
+   public void set(int account, long value) { balances.set(slot(account), value); }
+
+   public boolean compareAndSet(int account, long expected, long value)
+   {
+      return balances.compareAndSet(slot(account), expected, value);
+   }
+
+   public long getAndAdd(int account, long delta)
+   {
+      return balances.getAndAdd(slot(account), delta);
+   }
+
+   private int slot(int account)
+   {
+      if (account < 0 || account >= size) throw new IndexOutOfBoundsException("account " + account);
+      return account << STRIDE_SHIFT;
+   }
+}
@@ -0,0 +1,98 @@
+package money;
+
+import java.math.*;
+
+/**
+ * Amounts of money as a whole number of cents in a long. The methods are
+ * static and work on primitive longs, so money arithmetic never allocates or
+ * boxes, and is exact: there is no rounding error to build up. Arithmetic
+ * that would overflow throws an ArithmeticException instead of wrapping.
+ */
+public final class Money
+{
+   public static final int SCALE = 2;
+   public static final long CENTS_PER_UNIT = 100;
+
+   private Money()
+   {
+   }
+
+   /**
+    * Converts a whole number of currency units to cents.
+    * @param units the number of units, such as dollars
+    * @return the amount in cents
+    * @throws ArithmeticException if the amount does not fit in a long
+    */
+   public static long ofUnits(long units)
+   {
+      return Math.multiplyExact(units, CENTS_PER_UNIT);
+   }
+
+   /**
+    * Converts a floating-point amount to cents, rounding to the nearest cent.
+    * Use this only at the boundary to code that still computes in doubles.
+    * @param amount the amount in units
+    * @return the amount in cents
+    * @throws ArithmeticException if the amount is not finite or does not fit
+    * in a long
+    */
+   public static long of(double amount)
+   {
+      double cents = Math.rint(amount * CENTS_PER_UNIT);
+      if (!(Math.abs(cents) < 0x1p63)) throw new ArithmeticException("Amount out of range: " + amount);
+      return (long) cents;
+   }
+
+   /**
+    * Parses a decimal amount such as "1234.56".
+    * @param s the amount in units, with at most two decimal places
+    * @return the amount in cents
+    * @throws NumberFormatException if s is not a decimal number
+    * @throws ArithmeticException if s has more than two decimal places or
+    * does not fit in a long
+    */
+   public static long parse(String s)
+   {
+      return new BigDecimal(s).movePointRight(SCALE).longValueExact();
+   }
+
+   /**
+    * Adds two amounts.
+    * @return the sum, in cents
+    * @throws ArithmeticException if the sum overflows
+    */
+   public static long add(long a, long b)
+   {
+      return Math.addExact(a, b);
+   }
+
+   /**
+    * Subtracts one amount from another.
+    * @return the difference, in cents
+    * @throws ArithmeticException if the difference overflows
+    */
+   public static long subtract(long a, long b)
+   {
+      return Math.subtractExact(a, b);
+   }
+
+   /**
+    * Converts an amount to a double, for display or statistics only.
+    * @param cents the amount in cents
+    * @return the amount in units
+    */
+   public static double toDouble(long cents)
+   {
+      return cents / (double) CENTS_PER_UNIT;
+   }
+
+   /**
+    * Formats an amount with two decimal places, such as "-12.05".
+    * @param cents the amount in cents
+    * @return the formatted amount
+    */
+   public static String format(long cents)
+   {
+      return BigDecimal.valueOf(cents, SCALE).toPlainString();
+   }
+}
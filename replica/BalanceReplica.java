@@ -0,0 +1,177 @@
+package replica;
+
+import java.lang.invoke.*;
+import java.lang.ref.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A copy of the balances of a bank for readers that must not wait for the
+ * bank lock. The bank tells the replica which accounts it changed, under its
+ * lock, and the changes are published in batches through a sequence lock:
+ * when enough accounts have changed, or when the oldest change has waited
+ * for the maximum staleness. Readers retry when they overlap a publication,
+ * so they see the balances as of the end of some batch, never half a
+ * transfer, and never block.
+ */
+public class BalanceReplica
+{
+   private static final ScheduledExecutorService FLUSHER =
+      Executors.newSingleThreadScheduledExecutor(r -> {
+         var t = new Thread(r, "balance-replica-flusher");
+         t.setDaemon(true);
+         return t;
+      });
+
+   private final long[] balances;
+   // Odd while a batch is being published.
+   private volatile long version;
+
+   // The accounts changed since the last publication, guarded by the bank lock.
+   private final int[] dirty;
+   private final boolean[] marked;
+   private int dirtyCount;
+   private volatile boolean pending;
+
+   private final int batchSize;
+   private final Runnable flush;
+
+   /**
+    * Constructs a replica and schedules the flushes that bound its
+    * staleness when the bank is idle.
+    * @param initial the current balances
+    * @param policy the batch size and maximum staleness
+    * @param flush publishes the pending changes by calling
+    * {@link #publish} under the bank lock
+    */
+   public BalanceReplica(long[] initial, ReplicaPolicy policy, Runnable flush)
+   {
+      balances = initial.clone();
+      dirty = new int[initial.length];
+      marked = new boolean[initial.length];
+      batchSize = policy.getBatchSize();
+      this.flush = flush;
+
+      // Half the staleness bound between checks keeps a change from waiting
+      // longer than the bound. The task only holds on to the replica weakly,
+      // so a bank that is no longer used can be collected.
+      long period = Math.max(1, policy.getMaxStalenessNanos() / 2);
+      var task = new FlushTask(new WeakReference<>(this));
+      task.future = FLUSHER.scheduleAtFixedRate(task, period, period, TimeUnit.NANOSECONDS);
+   }
+
+   private static class FlushTask implements Runnable
+   {
+      final WeakReference<BalanceReplica> replica;
+      volatile ScheduledFuture<?> future;
+
+      FlushTask(WeakReference<BalanceReplica> replica)
+      {
+         this.replica = replica;
+      }
+
+      public void run()
+      {
+         BalanceReplica r = replica.get();
+         if (r == null)
+         {
+            if (future != null) future.cancel(false);
+         }
+         else if (r.pending)
+            r.flush.run();
+      }
+   }
+
+   /**
+    * Records that a transfer changed the balances of two accounts, and
+    * publishes the changes if there are enough of them. Both accounts are
+    * recorded before publishing, so a batch never holds half a transfer.
+    * Must be called under the bank lock.
+    * @param from the account the money came from
+    * @param to the account the money went to
+    * @param primary the balances of the bank
+    */
+   public void changed(int from, int to, long[] primary)
+   {
+      mark(from);
+      mark(to);
+      if (dirtyCount >= batchSize) publish(primary);
+   }
+
+   private void mark(int account)
+   {
+      if (marked[account]) return;
+      marked[account] = true;
+      dirty[dirtyCount++] = account;
+      if (dirtyCount == 1) pending = true;
+   }
+
+   /**
+    * Copies the changed balances into the replica. Must be called under the
+    * bank lock, which also keeps two publications from overlapping.
+    * @param primary the balances of the bank
+    */
+   public void publish(long[] primary)
+   {
+      if (dirtyCount == 0) return;
+      long v = version;
+      version = v + 1;
+      VarHandle.storeStoreFence();
+      for (int i = 0; i < dirtyCount; i++)
+      {
+         int a = dirty[i];
+         balances[a] = primary[a];
+         marked[a] = false;
+      }
+      version = v + 2;
+      dirtyCount = 0;
+      pending = false;
+   }
+
+   /**
+    * Reads a balance without locking.
+    * @param account the account number
+    * @return the balance as of the latest publication
+    */
+   public long get(int account)
+   {
+      Objects.checkIndex(account, balances.length);
+      while (true)
+      {
+         long v = version;
+         if ((v & 1) == 0)
+         {
+            long balance = balances[account];
+            VarHandle.loadLoadFence();
+            if (version == v) return balance;
+         }
+         Thread.onSpinWait();
+      }
+   }
+
+   /**
+    * Copies all balances as of one publication, without locking.
+    * @param into an array with one element per account
+    * @return the sum of the copied balances
+    */
+   public long snapshot(long[] into)
+   {
+      while (true)
+      {
+         long v = version;
+         if ((v & 1) == 0)
+         {
+            System.arraycopy(balances, 0, into, 0, balances.length);
+            VarHandle.loadLoadFence();
+            if (version == v)
+            {
+               long sum = 0;
+               for (long b : into)
+                  sum += b;
+               return sum;
+            }
+         }
+         Thread.onSpinWait();
+      }
+   }
+}
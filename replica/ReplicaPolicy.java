@@ -0,0 +1,47 @@
+package replica;
+
+import java.util.concurrent.*;
+
+/**
+ * How often a balance replica catches up with the balances it copies.
+ */
+public class ReplicaPolicy
+{
+   private final int batchSize;
+   private final long maxStalenessNanos;
+
+   /**
+    * Constructs a policy.
+    * @param batchSize the number of changed accounts that makes the writer
+    * publish them at once
+    * @param maxStaleness the longest time a change may stay unpublished,
+    * not counting the wait for the bank lock
+    * @param unit the unit of maxStaleness
+    */
+   public ReplicaPolicy(int batchSize, long maxStaleness, TimeUnit unit)
+   {
+      if (batchSize <= 0) throw new IllegalArgumentException("batchSize " + batchSize);
+      if (maxStaleness <= 0) throw new IllegalArgumentException("maxStaleness " + maxStaleness);
+      this.batchSize = batchSize;
+      this.maxStalenessNanos = unit.toNanos(maxStaleness);
+   }
+
+   /**
+    * Gets the default policy: batches of 64 accounts, at most 10 ms stale.
+    * @return the default policy
+    */
+   public static ReplicaPolicy defaultPolicy()
+   {
+      return new ReplicaPolicy(64, 10, TimeUnit.MILLISECONDS);
+   }
+
+   public int getBatchSize()
+   {
+      return batchSize;
+   }
+
+   public long getMaxStalenessNanos()
+   {
+      return maxStalenessNanos;
+   }
+}
@@ -0,0 +1,359 @@
+package sharded;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import money.*;
+
+/**
+ * A bank that splits its accounts into shards, each owned by a single thread.
+ * Callers never touch balances; they post operations to the inbox of the
+ * owning shard, and the shard thread applies them one at a time without
+ * locks. A transfer between shards is a debit on the source shard followed by
+ * a credit message to the destination shard. Balances and amounts are whole
+ * cents, see {@link Money}.
+ */
+public class Bank
+{
+   private final int size;
+   private final Shard[] shards;
+
+   /**
+    * Constructs the bank and starts its shard threads.
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    * @param nshards the number of shards
+    */
+   public Bank(int n, long initialBalance, int nshards)
+   {
+      if (nshards <= 0) throw new IllegalArgumentException("nshards " + nshards);
+      // The total has to fit into a long.
+      Math.multiplyExact(n, initialBalance);
+      size = n;
+      shards = new Shard[nshards];
+      for (int i = 0; i < nshards; i++)
+      {
+         int accounts = n / nshards + (i < n % nshards ? 1 : 0);
+         shards[i] = new Shard(i, accounts, initialBalance);
+      }
+      for (Shard s : shards)
+         s.thread.start();
+   }
+
+   /**
+    * Transfers money from one account to another. The call returns once the
+    * money has left the source account; the credit to the destination account
+    * follows in the destination shard. If the caller is interrupted while
+    * the transfer waits for funds, the transfer is cancelled and an
+    * InterruptedException is thrown; if the shard debited the account first,
+    * the call returns normally with the interrupt status set.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    */
+   public void transfer(int from, int to, long amount) throws InterruptedException
+   {
+      Objects.checkIndex(from, size);
+      Objects.checkIndex(to, size);
+      if (Thread.interrupted()) throw new InterruptedException();
+      var op = new Transfer(from, to, amount);
+      shardOf(from).post(op);
+      op.await();
+   }
+
+   /**
+    * Gets the sum of all account balances. Every shard is paused while the
+    * balances are added up, and money that is on its way from one shard to
+    * another is counted as well, so the sum is exact.
+    * @return the total balance, in cents
+    */
+   public synchronized long getTotalBalance() throws InterruptedException
+   {
+      var pause = new Pause(shards.length);
+      for (Shard s : shards)
+         s.post(pause);
+      try
+      {
+         pause.arrived.await();
+         long sum = 0;
+         for (Shard s : shards)
+            sum += s.total();
+         return sum;
+      }
+      finally
+      {
+         pause.release.countDown();
+      }
+   }
+
+   /**
+    * Gets the number of accounts in the bank.
+    * @return the number of accounts
+    */
+   public int size()
+   {
+      return size;
+   }
+
+   private Shard shardOf(int account)
+   {
+      return shards[account % shards.length];
+   }
+
+   private int localIndex(int account)
+   {
+      return account / shards.length;
+   }
+
+   /**
+    * An operation in a shard inbox.
+    */
+   private abstract static class Op
+   {
+   }
+
+   /**
+    * A transfer, posted to the shard of the source account. The caller parks
+    * until the shard has debited the source account, or gives up on the
+    * transfer when interrupted. Whichever of the two comes first decides.
+    */
+   private static class Transfer extends Op
+   {
+      static final int PENDING = 0;
+      static final int DEBITED = 1;
+      static final int CANCELLED = 2;
+
+      final int from;
+      final int to;
+      final long amount;
+      final Thread caller = Thread.currentThread();
+      final AtomicInteger state = new AtomicInteger(PENDING);
+
+      Transfer(int from, int to, long amount)
+      {
+         this.from = from;
+         this.to = to;
+         this.amount = amount;
+      }
+
+      /**
+       * Waits for the debit. On an interrupt, cancels the transfer unless the
+       * shard has taken it already, in which case the interrupt is kept for
+       * the caller to see afterwards.
+       */
+      void await() throws InterruptedException
+      {
+         while (state.get() != DEBITED)
+         {
+            LockSupport.park(this);
+            if (Thread.interrupted())
+            {
+               if (state.compareAndSet(PENDING, CANCELLED)) throw new InterruptedException();
+               Thread.currentThread().interrupt();
+               return;
+            }
+         }
+      }
+
+      /**
+       * Takes the transfer for the shard to debit.
+       * @return false if the caller has cancelled it
+       */
+      boolean claim()
+      {
+         return state.compareAndSet(PENDING, DEBITED);
+      }
+
+      boolean isCancelled()
+      {
+         return state.get() == CANCELLED;
+      }
+
+      void complete()
+      {
+         LockSupport.unpark(caller);
+      }
+   }
+
+   /**
+    * The second half of a transfer between shards.
+    */
+   private static class Credit extends Op
+   {
+      final int to;
+      final long amount;
+
+      Credit(int to, long amount)
+      {
+         this.to = to;
+         this.amount = amount;
+      }
+   }
+
+   /**
+    * Stops every shard until the caller has read the balances.
+    */
+   private static class Pause extends Op
+   {
+      final CountDownLatch arrived;
+      final CountDownLatch release = new CountDownLatch(1);
+
+      Pause(int shards)
+      {
+         arrived = new CountDownLatch(shards);
+      }
+   }
+
+   /**
+    * A range of accounts and the only thread that reads or writes them.
+    */
+   private class Shard
+   {
+      final Thread thread;
+      final Queue<Op> inbox = new ConcurrentLinkedQueue<>();
+      volatile boolean idle;
+
+      // Everything below is touched only by the shard thread.
+      final long[] balances;
+      final ArrayDeque<?>[] waiting;
+      long sent;
+      long received;
+
+      Shard(int id, int accounts, long initialBalance)
+      {
+         balances = new long[accounts];
+         Arrays.fill(balances, initialBalance);
+         waiting = new ArrayDeque<?>[accounts];
+         thread = new Thread(this::run, "shard-" + id);
+         thread.setDaemon(true);
+      }
+
+      void post(Op op)
+      {
+         inbox.offer(op);
+         if (idle) LockSupport.unpark(thread);
+      }
+
+      void run()
+      {
+         while (true)
+         {
+            Op op = inbox.poll();
+            if (op == null)
+            {
+               idle = true;
+               if (inbox.isEmpty()) LockSupport.park(this);
+               idle = false;
+            }
+            else if (op instanceof Transfer)
+               debit((Transfer) op);
+            else if (op instanceof Credit)
+            {
+               var c = (Credit) op;
+               received += c.amount;
+               credit(c.to, c.amount);
+            }
+            else
+               pause((Pause) op);
+         }
+      }
+
+      /**
+       * Debits the source account of a newly arrived transfer, or parks the
+       * transfer until a credit to that account makes it possible. Transfers
+       * already parked on the account go first.
+       */
+      void debit(Transfer t)
+      {
+         int i = localIndex(t.from);
+         // Cancelled transfers at the head must not hold up this one.
+         retry(i);
+         if (balances[i] < t.amount || waiting[i] != null && !waiting[i].isEmpty())
+            waitingOn(i).add(t);
+         else
+            apply(t);
+      }
+
+      /**
+       * Debits the source account of a transfer that its caller has not
+       * cancelled, and passes the money on.
+       */
+      void apply(Transfer t)
+      {
+         if (!t.claim()) return;
+         balances[localIndex(t.from)] -= t.amount;
+         t.complete();
+         Shard target = shardOf(t.to);
+         if (target == this)
+            credit(t.to, t.amount);
+         else
+         {
+            sent += t.amount;
+            target.post(new Credit(t.to, t.amount));
+         }
+      }
+
+      void credit(int account, long amount)
+      {
+         int i = localIndex(account);
+         balances[i] = Money.add(balances[i], amount);
+         retry(i);
+      }
+
+      /**
+       * Applies the parked transfers of an account in arrival order, as far
+       * as its balance allows, and drops the ones that were cancelled.
+       */
+      void retry(int i)
+      {
+         @SuppressWarnings("unchecked")
+         ArrayDeque<Transfer> queue = (ArrayDeque<Transfer>) waiting[i];
+         if (queue == null) return;
+         while (!queue.isEmpty()
+            && (queue.peek().isCancelled() || balances[i] >= queue.peek().amount))
+         {
+            apply(queue.poll());
+         }
+      }
+
+      @SuppressWarnings("unchecked")
+      ArrayDeque<Transfer> waitingOn(int i)
+      {
+         if (waiting[i] == null) waiting[i] = new ArrayDeque<Transfer>();
+         return (ArrayDeque<Transfer>) waiting[i];
+      }
+
+      void pause(Pause p)
+      {
+         p.arrived.countDown();
+         boolean interrupted = false;
+         while (true)
+         {
+            try
+            {
+               p.release.await();
+               break;
+            }
+            catch (InterruptedException e)
+            {
+               interrupted = true;
+            }
+         }
+         if (interrupted) Thread.currentThread().interrupt();
+      }
+
+      /**
+       * Gets the money this shard holds, plus the money it has sent to other
+       * shards, minus the money it has received from them. Summed over all
+       * shards, this counts money in transit exactly once.
+       */
+      long total()
+      {
+         long sum = 0;
+         for (long b : balances)
+            sum += b;
+         return sum + sent - received;
+      }
+   }
+}
@@ -0,0 +1,53 @@
+package sharded;
+
+import money.*;
+
+/**
+ * This program runs the SynchBankTest workload against a bank whose accounts
+ * are owned by single-writer shard threads.
+ * @version 1.00 2026-10-15
+ */
+public class ShardedBankTest
+{
+   public static final int NACCOUNTS = 100;
+   public static final long INITIAL_BALANCE = Money.ofUnits(1000);
+   public static final long MAX_AMOUNT = Money.ofUnits(1000);
+   public static final int DELAY = 10;
+   public static final int REPORT_DELAY = 1000;
+
+   public static void main(String[] args) throws InterruptedException
+   {
+      int nshards = Runtime.getRuntime().availableProcessors();
+      var bank = new Bank(NACCOUNTS, INITIAL_BALANCE, nshards);
+      for (int i = 0; i < NACCOUNTS; i++)
+      {
+         int fromAccount = i;
+         Runnable r = () -> {
+            try
+            {
+               while (true)
+               {
+                  int toAccount = (int) (bank.size() * Math.random());
+                  long amount = (long) (MAX_AMOUNT * Math.random());
+                  bank.transfer(fromAccount, toAccount, amount);
+                  System.out.printf("%s %10s from %d to %d%n", Thread.currentThread(),
+                     Money.format(amount), fromAccount, toAccount);
+                  Thread.sleep((int) (DELAY * Math.random()));
+               }
+            }
+            catch (InterruptedException e)
+            {
+            }
+         };
+         var t = new Thread(r);
+         t.start();
+      }
+
+      while (true)
+      {
+         Thread.sleep(REPORT_DELAY);
+         System.out.printf("Total Balance: %10s (%d shards)%n", Money.format(bank.getTotalBalance()),
+            nshards);
+      }
+   }
+}
@@ -0,0 +1,197 @@
+package stm;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import money.*;
+
+/**
+ * A bank whose accounts are changed in transactions that may span any number
+ * of accounts. There is no bank lock: a transaction runs optimistically and,
+ * when it commits, locks only the accounts it writes and checks that the
+ * accounts it read have not changed since it started. Transactions that
+ * touch different accounts commit in parallel. Balances and amounts are
+ * whole cents, see {@link Money}.
+ */
+public class Bank
+{
+   /**
+    * An account balance with a version. The version is the commit timestamp
+    * of the last transaction that wrote the balance, shifted left by one; the
+    * lowest bit is set while a committing transaction holds the account.
+    */
+   static class Cell
+   {
+      volatile long version;
+      volatile long value;
+   }
+
+   private static final AtomicLongFieldUpdater<Cell> VERSION
+      = AtomicLongFieldUpdater.newUpdater(Cell.class, "version");
+   private static final int SPINS_BEFORE_YIELD = 16;
+
+   private final Cell[] cells;
+   private final AtomicLong clock = new AtomicLong();
+
+   /**
+    * Constructs the bank.
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    */
+   public Bank(int n, long initialBalance)
+   {
+      cells = new Cell[n];
+      for (int i = 0; i < n; i++)
+      {
+         cells[i] = new Cell();
+         cells[i].value = initialBalance;
+      }
+   }
+
+   static boolean isLocked(long version)
+   {
+      return (version & 1) != 0;
+   }
+
+   static long timestamp(long version)
+   {
+      return version >>> 1;
+   }
+
+   /**
+    * Runs a transaction, running it again as often as it conflicts with
+    * transactions that commit while it runs.
+    * @param body the transaction; it may run more than once, so it must not
+    * have side effects other than reading and writing accounts
+    * @return the result of the run that committed
+    */
+   public <T> T atomically(Function<Transaction, T> body)
+   {
+      for (int attempt = 0; ; attempt++)
+      {
+         var tx = new Transaction(cells, clock.get());
+         try
+         {
+            T result = body.apply(tx);
+            if (commit(tx)) return result;
+         }
+         catch (Transaction.Conflict e)
+         {
+         }
+         if (attempt < SPINS_BEFORE_YIELD)
+            Thread.onSpinWait();
+         else
+            Thread.yield();
+      }
+   }
+
+   /**
+    * Locks the write set in account order, validates the read set and
+    * publishes the writes with a new timestamp.
+    * @return true if the transaction committed
+    */
+   private boolean commit(Transaction tx)
+   {
+      // Committers lock their write sets in account order, so two of them
+      // never wait for each other.
+      int n = tx.sortWrites();
+      if (n == 0) return true;
+
+      var previous = new long[n];
+      int locked = 0;
+      try
+      {
+         for (; locked < n; locked++)
+         {
+            Cell cell = cells[tx.writes[locked]];
+            long v = cell.version;
+            if (isLocked(v) || !VERSION.compareAndSet(cell, v, v | 1)) return false;
+            previous[locked] = v;
+         }
+
+         long writeVersion = clock.incrementAndGet();
+         for (int r = 0; r < tx.nreads; r++)
+         {
+            int account = tx.reads[r];
+            long v = cells[account].version;
+            if (isLocked(v))
+            {
+               int w = Arrays.binarySearch(tx.writes, 0, n, account);
+               if (w < 0) return false;
+               v = previous[w];
+            }
+            if (timestamp(v) > tx.readVersion) return false;
+         }
+
+         for (int i = 0; i < n; i++)
+         {
+            cells[tx.writes[i]].value = tx.values[i];
+            previous[i] = writeVersion << 1;
+         }
+         return true;
+      }
+      finally
+      {
+         // Unlock, with the new version after a commit or the old one after
+         // an abort.
+         while (locked > 0)
+         {
+            locked--;
+            cells[tx.writes[locked]].version = previous[locked];
+         }
+      }
+   }
+
+   /**
+    * Transfers money from one account to another.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    * @return true if the money was moved, false if the balance was insufficient
+    */
+   public boolean transfer(int from, int to, long amount)
+   {
+      return atomically(tx -> {
+         if (tx.read(from) < amount) return false;
+         tx.add(from, -amount);
+         tx.add(to, amount);
+         return true;
+      });
+   }
+
+   /**
+    * Gets the balance of an account.
+    * @param account the account number
+    * @return the balance, in cents
+    */
+   public long getBalance(int account)
+   {
+      return cells[account].value;
+   }
+
+   /**
+    * Gets the sum of all account balances, read in one transaction so that
+    * the sum is consistent.
+    * @return the total balance, in cents
+    */
+   public long getTotalBalance()
+   {
+      return atomically(tx -> {
+         long sum = 0;
+
+         for (int i = 0; i < cells.length; i++)
+            sum += tx.read(i);
+
+         return sum;
+      });
+   }
+
+   /**
+    * Gets the number of accounts in the bank.
+    * @return the number of accounts
+    */
+   public int size()
+   {
+      return cells.length;
+   }
+}
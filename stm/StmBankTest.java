@@ -0,0 +1,80 @@
+package stm;
+
+import money.*;
+
+/**
+ * This program runs random two-account transfers alongside a payroll that
+ * moves money from one account to every other account in a single
+ * transaction. Neither takes a bank-wide lock, yet the total balance never
+ * changes.
+ * @version 1.00 2026-10-15
+ */
+public class StmBankTest
+{
+   public static final int NACCOUNTS = 100;
+   public static final long INITIAL_BALANCE = Money.ofUnits(1000);
+   public static final long MAX_AMOUNT = Money.ofUnits(1000);
+   public static final long SALARY = Money.ofUnits(10);
+   public static final int DELAY = 10;
+   public static final int PAYROLL_DELAY = 100;
+   public static final int REPORT_DELAY = 1000;
+
+   public static void main(String[] args) throws InterruptedException
+   {
+      var bank = new Bank(NACCOUNTS, INITIAL_BALANCE);
+      for (int i = 0; i < NACCOUNTS; i++)
+      {
+         int fromAccount = i;
+         Runnable r = () -> {
+            try
+            {
+               while (true)
+               {
+                  int toAccount = (int) (bank.size() * Math.random());
+                  long amount = (long) (MAX_AMOUNT * Math.random());
+                  if (bank.transfer(fromAccount, toAccount, amount))
+                     System.out.printf("%s %10s from %d to %d%n", Thread.currentThread(),
+                        Money.format(amount), fromAccount, toAccount);
+                  Thread.sleep((int) (DELAY * Math.random()));
+               }
+            }
+            catch (InterruptedException e)
+            {
+            }
+         };
+         var t = new Thread(r);
+         t.start();
+      }
+
+      // The employer is a random account; it pays everyone or no one.
+      Runnable payroll = () -> {
+         try
+         {
+            while (true)
+            {
+               int employer = (int) (bank.size() * Math.random());
+               boolean paid = bank.atomically(tx -> {
+                  long payout = SALARY * (bank.size() - 1);
+                  if (tx.read(employer) < payout) return false;
+                  tx.add(employer, -payout);
+                  for (int i = 0; i < bank.size(); i++)
+                     if (i != employer) tx.add(i, SALARY);
+                  return true;
+               });
+               if (paid) System.out.printf("Payroll paid by %d%n", employer);
+               Thread.sleep(PAYROLL_DELAY);
+            }
+         }
+         catch (InterruptedException e)
+         {
+         }
+      };
+      new Thread(payroll).start();
+
+      while (true)
+      {
+         Thread.sleep(REPORT_DELAY);
+         System.out.printf("Total Balance: %10s%n", Money.format(bank.getTotalBalance()));
+      }
+   }
+}
@@ -0,0 +1,209 @@
+package stm;
+
+import java.util.*;
+import money.*;
+
+/**
+ * A transaction over the accounts of a bank. Reads see the balances as of
+ * the start of the transaction; writes are buffered and become visible all
+ * at once when the transaction commits. A transaction that would read a
+ * balance changed after it started is aborted and run again, so the code in
+ * a transaction must not have side effects other than reads and writes.
+ */
+public class Transaction
+{
+   /**
+    * Thrown to abort a transaction that has seen a conflict. The bank catches
+    * it and runs the transaction again.
+    */
+   static class Conflict extends RuntimeException
+   {
+      private static final long serialVersionUID = 1L;
+      static final Conflict INSTANCE = new Conflict();
+
+      private Conflict()
+      {
+         super(null, null, false, false);
+      }
+   }
+
+   // Write sets up to this size are searched linearly; larger ones get a
+   // hash index.
+   private static final int LINEAR_WRITES = 16;
+
+   private final Bank.Cell[] cells;
+   final long readVersion;
+
+   // The read set, and the write set as parallel arrays of accounts and new
+   // balances that grow on demand. Transactions mostly touch few accounts,
+   // so the write set is searched linearly until it outgrows LINEAR_WRITES;
+   // then an open-addressing table maps accounts to positions in the arrays.
+   int[] reads = new int[8];
+   int nreads;
+   int[] writes = new int[8];
+   long[] values = new long[8];
+   int nwrites;
+   // Positions plus one, so that 0 is an empty slot; null while the write set
+   // is small.
+   private int[] index;
+
+   Transaction(Bank.Cell[] cells, long readVersion)
+   {
+      this.cells = cells;
+      this.readVersion = readVersion;
+   }
+
+   /**
+    * Reads a balance.
+    * @param account the account number
+    * @return the balance as of the start of this transaction, or as last
+    * written by this transaction, in cents
+    */
+   public long read(int account)
+   {
+      int w = indexOfWrite(account);
+      if (w >= 0) return values[w];
+      Bank.Cell cell = cells[account];
+      long before = cell.version;
+      long value = cell.value;
+      long after = cell.version;
+      if (before != after || Bank.isLocked(before) || Bank.timestamp(before) > readVersion)
+         throw Conflict.INSTANCE;
+      if (nreads == reads.length) reads = Arrays.copyOf(reads, 2 * nreads);
+      reads[nreads++] = account;
+      return value;
+   }
+
+   /**
+    * Writes a balance when the transaction commits.
+    * @param account the account number
+    * @param value the new balance, in cents
+    */
+   public void write(int account, long value)
+   {
+      Objects.checkIndex(account, cells.length);
+      int w = indexOfWrite(account);
+      if (w < 0)
+      {
+         if (nwrites == writes.length)
+         {
+            writes = Arrays.copyOf(writes, 2 * nwrites);
+            values = Arrays.copyOf(values, 2 * nwrites);
+         }
+         w = nwrites++;
+         writes[w] = account;
+         if (index != null) addToIndex(w);
+         else if (nwrites > LINEAR_WRITES) rebuildIndex();
+      }
+      values[w] = value;
+   }
+
+   /**
+    * Adds to a balance. This is a read followed by a write.
+    * @param account the account number
+    * @param amount the amount to add in cents, negative to take money out
+    */
+   public void add(int account, long amount)
+   {
+      write(account, Money.add(read(account), amount));
+   }
+
+   /**
+    * Sorts the write set by account number, in place. The write set must not
+    * be searched afterwards.
+    * @return the number of writes
+    */
+   int sortWrites()
+   {
+      int n = nwrites;
+      if (n <= LINEAR_WRITES)
+      {
+         for (int i = 1; i < n; i++)
+            for (int j = i; j > 0 && writes[j - 1] > writes[j]; j--)
+               swap(j - 1, j);
+      }
+      else
+      {
+         // Heapsort, which needs no extra arrays.
+         for (int i = n / 2 - 1; i >= 0; i--)
+            siftDown(i, n);
+         for (int end = n - 1; end > 0; end--)
+         {
+            swap(0, end);
+            siftDown(0, end);
+         }
+      }
+      index = null;
+      return n;
+   }
+
+   private void siftDown(int i, int n)
+   {
+      while (true)
+      {
+         int child = 2 * i + 1;
+         if (child >= n) return;
+         if (child + 1 < n && writes[child + 1] > writes[child]) child++;
+         if (writes[i] >= writes[child]) return;
+         swap(i, child);
+         i = child;
+      }
+   }
+
+   private void swap(int i, int j)
+   {
+      int account = writes[i];
+      writes[i] = writes[j];
+      writes[j] = account;
+      long value = values[i];
+      values[i] = values[j];
+      values[j] = value;
+   }
+
+   private int indexOfWrite(int account)
+   {
+      if (index == null)
+      {
+         for (int i = 0; i < nwrites; i++)
+            if (writes[i] == account) return i;
+         return -1;
+      }
+      int mask = index.length - 1;
+      for (int slot = hash(account) & mask; index[slot] != 0; slot = (slot + 1) & mask)
+         if (writes[index[slot] - 1] == account) return index[slot] - 1;
+      return -1;
+   }
+
+   /**
+    * Makes a table with room for the writes array at most half full, and
+    * enters every write.
+    */
+   private void rebuildIndex()
+   {
+      index = new int[2 * writes.length];
+      for (int i = 0; i < nwrites; i++)
+         addToIndex(i);
+   }
+
+   private void addToIndex(int w)
+   {
+      if (index.length < 2 * writes.length)
+      {
+         // The writes array has grown.
+         rebuildIndex();
+         return;
+      }
+      int mask = index.length - 1;
+      int slot = hash(writes[w]) & mask;
+      while (index[slot] != 0)
+         slot = (slot + 1) & mask;
+      index[slot] = w + 1;
+   }
+
+   private static int hash(int account)
+   {
+      // Spreads consecutive account numbers over the table.
+      int h = account * 0x9E3779B9;
+      return h ^ (h >>> 16);
+   }
+}
@@ -0,0 +1,469 @@
+package stripedLock;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import money.*;
+
+/**
+ * A bank with a number of bank accounts that locks only the accounts involved
+ * in a transfer, so transfers between disjoint accounts can run in parallel.
+ *
+ * Accounts that receive a large share of the transfers are split: they get
+ * extra sub-balances with their own locks, and a credit to a split account
+ * locks only one of them, so credits to a hot account no longer queue up on
+ * a single lock. The balance of an account is always the sum of its
+ * sub-balances, which every reader adds up under their locks. Balances and
+ * amounts are whole cents, see {@link Money}, so the sums are exact.
+ */
+public class Bank
+{
+   public static final int DEFAULT_SUB_BALANCES = 8;
+
+   // One in SAMPLE_RATE credits is counted; after WINDOW counted credits,
+   // accounts that got more than a HOT_DIVISORth of them are split. WINDOW
+   // must be a power of two.
+   private static final int SAMPLE_RATE = 8;
+   private static final int WINDOW = 1024;
+   private static final int HOT_DIVISOR = 10;
+
+   // The home balance of every account, guarded by its account lock. It
+   // stays a sub-balance of an account after the account is split.
+   private final long[] accounts;
+   private final Lock[] accountLocks;
+   private final Condition[] sufficientFunds;
+
+   private final int subBalances;
+   private final AtomicReferenceArray<Split> splits;
+   private final AtomicIntegerArray credits;
+   // The accounts of the credits counted in the current window, so that the
+   // end of a window visits only those instead of every account.
+   private final AtomicIntegerArray windowAccounts = new AtomicIntegerArray(WINDOW);
+   private final AtomicInteger sampled = new AtomicInteger();
+   private final AtomicIntegerArray waiting;
+
+   /**
+    * Constructs the bank, splitting hot accounts into
+    * {@link #DEFAULT_SUB_BALANCES} sub-balances.
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    */
+   public Bank(int n, long initialBalance)
+   {
+      this(n, initialBalance, DEFAULT_SUB_BALANCES);
+   }
+
+   /**
+    * Constructs the bank.
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    * @param subBalances the number of sub-balances a hot account is split
+    * into, counting its home balance; 1 never splits accounts
+    */
+   public Bank(int n, long initialBalance, int subBalances)
+   {
+      if (subBalances < 1) throw new IllegalArgumentException("subBalances " + subBalances);
+      accounts = new long[n];
+      Arrays.fill(accounts, initialBalance);
+      accountLocks = new Lock[n];
+      sufficientFunds = new Condition[n];
+      for (int i = 0; i < n; i++)
+      {
+         accountLocks[i] = new ReentrantLock();
+         sufficientFunds[i] = accountLocks[i].newCondition();
+      }
+      this.subBalances = subBalances;
+      splits = new AtomicReferenceArray<>(n);
+      credits = new AtomicIntegerArray(n);
+      waiting = new AtomicIntegerArray(n);
+   }
+
+   /**
+    * The extra sub-balances of a split account. Splits are never undone, so
+    * a thread that has seen one may lock its parts at any time.
+    */
+   private static class Split
+   {
+      final Part[] parts;
+
+      Split(int n)
+      {
+         parts = new Part[n];
+         for (int i = 0; i < n; i++)
+            parts[i] = new Part();
+      }
+
+      Part pick()
+      {
+         return parts[ThreadLocalRandom.current().nextInt(parts.length)];
+      }
+   }
+
+   private static class Part
+   {
+      final Lock lock = new ReentrantLock();
+      long balance;
+   }
+
+   /**
+    * Transfers money from one account to another.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    */
+   public void transfer(int from, int to, long amount) throws InterruptedException
+   {
+      countCredit(to);
+      while (!tryTransfer(from, to, amount, false)
+         && (splits.get(from) == null || !tryTransfer(from, to, amount, true)))
+         awaitSufficientFunds(from, amount);
+      System.out.printf("%s %10s from %d to %d%n", Thread.currentThread(), Money.format(amount),
+         from, to);
+   }
+
+   /**
+    * Moves the money if the source account currently covers the amount.
+    * Locks are always taken in ascending account order, and within an
+    * account the home lock before the sub-balance locks in their order,
+    * which is what keeps two opposite transfers from deadlocking.
+    * @param borrow true to lock every sub-balance of the source account and
+    * debit across them, false to debit the home balance only
+    * @return true if the money was moved
+    */
+   private boolean tryTransfer(int from, int to, long amount, boolean borrow)
+   {
+      Split source = borrow ? splits.get(from) : null;
+      Split target = splits.get(to);
+      Part part = target == null ? null : target.pick();
+      boolean toHome = part == null;
+      if (from == to)
+         lock(from, true, source, part);
+      else if (from < to)
+      {
+         lock(from, true, source, null);
+         lock(to, toHome, null, part);
+      }
+      else
+      {
+         lock(to, toHome, null, part);
+         lock(from, true, source, null);
+      }
+      boolean moved = false;
+      try
+      {
+         if (!debit(from, source, amount)) return false;
+         if (toHome)
+         {
+            accounts[to] = Money.add(accounts[to], amount);
+            sufficientFunds[to].signalAll();
+         }
+         else
+            part.balance = Money.add(part.balance, amount);
+         moved = true;
+         return true;
+      }
+      finally
+      {
+         if (from == to)
+            unlock(from, true, source, part);
+         else
+         {
+            unlock(from, true, source, null);
+            unlock(to, toHome, null, part);
+         }
+         if (moved && !toHome && waiting.get(to) > 0) signal(to);
+      }
+   }
+
+   /**
+    * Takes money from an account, home balance first. Must be called holding
+    * the account lock and, if split is not null, the locks of its parts.
+    * When the home balance falls short, the parts are swept into it while
+    * their locks are held, so that the debits after this one find the money
+    * at home and need not lock the parts.
+    * @return true if the balances covered the amount
+    */
+   private boolean debit(int account, Split split, long amount)
+   {
+      if (accounts[account] >= amount)
+      {
+         accounts[account] -= amount;
+         return true;
+      }
+      if (split == null || balance(account, split) < amount) return false;
+      for (Part p : split.parts)
+      {
+         accounts[account] += p.balance;
+         p.balance = 0;
+      }
+      accounts[account] -= amount;
+      return true;
+   }
+
+   private long balance(int account, Split split)
+   {
+      long sum = accounts[account];
+      if (split != null)
+         for (Part p : split.parts)
+            sum += p.balance;
+      return sum;
+   }
+
+   /**
+    * Takes some of the locks of one account in order.
+    * @param account the account
+    * @param home true to take the account lock
+    * @param split if not null, take the locks of all its parts
+    * @param part if split is null and this is not, take the lock of this part
+    */
+   private void lock(int account, boolean home, Split split, Part part)
+   {
+      if (home) accountLocks[account].lock();
+      if (split != null)
+         for (Part p : split.parts)
+            p.lock.lock();
+      else if (part != null)
+         part.lock.lock();
+   }
+
+   private void unlock(int account, boolean home, Split split, Part part)
+   {
+      if (split != null)
+         for (int i = split.parts.length - 1; i >= 0; i--)
+            split.parts[i].lock.unlock();
+      else if (part != null)
+         part.lock.unlock();
+      if (home) accountLocks[account].unlock();
+   }
+
+   /**
+    * Wakes the transfers waiting for funds in an account that was credited
+    * through one of its parts, without holding the account lock.
+    */
+   private void signal(int account)
+   {
+      accountLocks[account].lock();
+      try
+      {
+         sufficientFunds[account].signalAll();
+      }
+      finally
+      {
+         accountLocks[account].unlock();
+      }
+   }
+
+   /**
+    * Counts a sample of the credits to each account and splits the accounts
+    * that get too many of them. The credit that ends a window checks only the
+    * accounts counted in it, so its cost does not grow with the number of
+    * accounts. Credits counted while a window is being checked may land in
+    * either window; that is fine for a sample.
+    */
+   private void countCredit(int account)
+   {
+      if (subBalances == 1 || ThreadLocalRandom.current().nextInt(SAMPLE_RATE) != 0) return;
+      credits.incrementAndGet(account);
+      int slot = sampled.getAndIncrement() & (WINDOW - 1);
+      windowAccounts.set(slot, account);
+      if (slot != WINDOW - 1) return;
+      for (int i = 0; i < WINDOW; i++)
+      {
+         int a = windowAccounts.get(i);
+         if (credits.getAndSet(a, 0) > WINDOW / HOT_DIVISOR && splits.get(a) == null)
+            split(a);
+      }
+   }
+
+   /**
+    * Splits an account. The new parts start out empty, so no money moves;
+    * the account lock is held so that a reader holding it sees either no
+    * split or the split and all of its parts.
+    */
+   private void split(int account)
+   {
+      accountLocks[account].lock();
+      try
+      {
+         if (splits.get(account) == null) splits.set(account, new Split(subBalances - 1));
+      }
+      finally
+      {
+         accountLocks[account].unlock();
+      }
+   }
+
+   /**
+    * Applies a batch of transfers, locking each account in the batch only
+    * once. Transfers are applied in batch order; a transfer whose source
+    * account has insufficient funds at that point is skipped rather than
+    * waited for, and is marked as failed in the batch.
+    * @param batch the transfers to apply
+    */
+   public void transferAll(TransferBatch batch)
+   {
+      int n = batch.size();
+      var involved = new int[2 * n];
+      for (int i = 0; i < n; i++)
+      {
+         involved[2 * i] = batch.from(i);
+         involved[2 * i + 1] = batch.to(i);
+      }
+      Arrays.sort(involved);
+      int distinct = 0;
+      for (int i = 0; i < involved.length; i++)
+         if (distinct == 0 || involved[i] != involved[distinct - 1])
+            involved[distinct++] = involved[i];
+
+      var credited = new BitSet(accounts.length);
+      var locked = new Split[distinct];
+      int count = 0;
+      try
+      {
+         for (; count < distinct; count++)
+         {
+            accountLocks[involved[count]].lock();
+            locked[count] = splits.get(involved[count]);
+            lock(involved[count], false, locked[count], null);
+         }
+
+         for (int i = 0; i < n; i++)
+         {
+            int from = batch.from(i);
+            int to = batch.to(i);
+            long amount = batch.amount(i);
+            boolean ok = debit(from, splits.get(from), amount);
+            if (ok)
+            {
+               accounts[to] = Money.add(accounts[to], amount);
+               credited.set(to);
+            }
+            batch.setSucceeded(i, ok);
+         }
+
+         for (int a = credited.nextSetBit(0); a >= 0; a = credited.nextSetBit(a + 1))
+            sufficientFunds[a].signalAll();
+      }
+      finally
+      {
+         while (count > 0)
+         {
+            count--;
+            unlock(involved[count], true, locked[count], null);
+         }
+      }
+   }
+
+   /**
+    * Waits until an account holds at least the given amount. Only the locks
+    * of that account are held while waiting, so other transfers keep going.
+    */
+   private void awaitSufficientFunds(int account, long amount) throws InterruptedException
+   {
+      accountLocks[account].lock();
+      // Counting the waiter before reading the balance makes a credit to a
+      // part either show up in the balance or see the waiter and signal it.
+      waiting.incrementAndGet(account);
+      try
+      {
+         while (lockedBalance(account) < amount)
+            sufficientFunds[account].await();
+      }
+      finally
+      {
+         waiting.decrementAndGet(account);
+         accountLocks[account].unlock();
+      }
+   }
+
+   /**
+    * Adds up the sub-balances of an account. Must be called holding the
+    * account lock; takes the locks of the parts.
+    */
+   private long lockedBalance(int account)
+   {
+      Split split = splits.get(account);
+      lock(account, false, split, null);
+      try
+      {
+         return balance(account, split);
+      }
+      finally
+      {
+         unlock(account, false, split, null);
+      }
+   }
+
+   /**
+    * Gets the balance of an account, adding up its sub-balances if it was
+    * split.
+    * @param account the account number
+    * @return the balance, in cents
+    */
+   public long getBalance(int account)
+   {
+      accountLocks[account].lock();
+      try
+      {
+         return lockedBalance(account);
+      }
+      finally
+      {
+         accountLocks[account].unlock();
+      }
+   }
+
+   /**
+    * Gets the sum of all account balances. All locks are taken in order, so
+    * the sum is consistent but blocks every transfer.
+    * @return the total balance, in cents
+    */
+   public long getTotalBalance()
+   {
+      var locked = new Split[accounts.length];
+      int count = 0;
+      try
+      {
+         long sum = 0;
+         for (; count < accounts.length; count++)
+         {
+            accountLocks[count].lock();
+            locked[count] = splits.get(count);
+            lock(count, false, locked[count], null);
+         }
+
+         for (int a = 0; a < accounts.length; a++)
+            sum += balance(a, locked[a]);
+
+         return sum;
+      }
+      finally
+      {
+         while (count > 0)
+         {
+            count--;
+            unlock(count, true, locked[count], null);
+         }
+      }
+   }
+
+   /**
+    * Tells whether an account has been split into sub-balances.
+    * @param account the account number
+    * @return true if the account was found to be hot and split
+    */
+   public boolean isSplit(int account)
+   {
+      return splits.get(account) != null;
+   }
+
+   /**
+    * Gets the number of accounts in the bank.
+    * @return the number of accounts
+    */
+   public int size()
+   {
+      return accounts.length;
+   }
+}
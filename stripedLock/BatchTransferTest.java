@@ -0,0 +1,52 @@
+package stripedLock;
+
+import money.*;
+
+/**
+ * This program applies transfers in batches, taking each account lock once
+ * per batch instead of once per transfer.
+ * @version 1.00 2026-10-15
+ */
+public class BatchTransferTest
+{
+   public static final int NACCOUNTS = 100;
+   public static final long INITIAL_BALANCE = Money.ofUnits(1000);
+   public static final long MAX_AMOUNT = Money.ofUnits(1000);
+   public static final int NTHREADS = 8;
+   public static final int BATCH_SIZE = 1000;
+   public static final int NBATCHES = 1000;
+
+   public static void main(String[] args) throws InterruptedException
+   {
+      var bank = new Bank(NACCOUNTS, INITIAL_BALANCE);
+      var threads = new Thread[NTHREADS];
+      for (int t = 0; t < NTHREADS; t++)
+      {
+         Runnable r = () -> {
+            var from = new int[BATCH_SIZE];
+            var to = new int[BATCH_SIZE];
+            var amounts = new long[BATCH_SIZE];
+            int moved = 0;
+            for (int b = 0; b < NBATCHES; b++)
+            {
+               for (int i = 0; i < BATCH_SIZE; i++)
+               {
+                  from[i] = (int) (bank.size() * Math.random());
+                  to[i] = (int) (bank.size() * Math.random());
+                  amounts[i] = (long) (MAX_AMOUNT * Math.random());
+               }
+               var batch = new TransferBatch(from, to, amounts);
+               bank.transferAll(batch);
+               moved += batch.getSuccessCount();
+            }
+            System.out.printf("%s moved %d of %d transfers%n", Thread.currentThread(), moved,
+               NBATCHES * BATCH_SIZE);
+         };
+         threads[t] = new Thread(r);
+         threads[t].start();
+      }
+      for (Thread t : threads)
+         t.join();
+      System.out.printf("Total Balance: %10s%n", Money.format(bank.getTotalBalance()));
+   }
+}
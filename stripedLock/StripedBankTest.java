@@ -0,0 +1,68 @@
+package stripedLock;
+
+import money.*;
+
+/**
+ * This program shows how per-account locks let transfers between different
+ * accounts proceed in parallel while keeping the total balance constant.
+ * @version 1.00 2026-10-15
+ */
+public class StripedBankTest
+{
+   public static final int NACCOUNTS = 100;
+   public static final long INITIAL_BALANCE = Money.ofUnits(1000);
+   public static final long MAX_AMOUNT = Money.ofUnits(1000);
+   public static final int DELAY = 10;
+   public static final int REPORT_DELAY = 1000;
+   public static final double HOT_SHARE = 0.5;
+
+   /**
+    * @param args "hot" to make half of the transfers go to or from account 0,
+    * which the bank then splits
+    */
+   public static void main(String[] args) throws InterruptedException
+   {
+      boolean hot = args.length > 0 && args[0].equals("hot");
+      var bank = new Bank(NACCOUNTS, INITIAL_BALANCE);
+      for (int i = 0; i < NACCOUNTS; i++)
+      {
+         int fromAccount = i;
+         Runnable r = () -> {
+            try
+            {
+               while (true)
+               {
+                  int toAccount = (int) (bank.size() * Math.random());
+                  long amount = (long) (MAX_AMOUNT * Math.random());
+                  if (hot && Math.random() < HOT_SHARE)
+                  {
+                     if (Math.random() < 0.5)
+                        bank.transfer(fromAccount, 0, amount);
+                     else
+                        bank.transfer(0, fromAccount, amount);
+                  }
+                  else
+                     bank.transfer(fromAccount, toAccount, amount);
+                  Thread.sleep((int) (DELAY * Math.random()));
+               }
+            }
+            catch (InterruptedException e)
+            {
+            }
+         };
+         var t = new Thread(r);
+         t.start();
+      }
+
+      // The transfers no longer print the total, so report it from here.
+      while (true)
+      {
+         Thread.sleep(REPORT_DELAY);
+         int split = 0;
+         for (int i = 0; i < bank.size(); i++)
+            if (bank.isSplit(i)) split++;
+         System.out.printf("Total Balance: %10s, %d split accounts%n",
+            Money.format(bank.getTotalBalance()), split);
+      }
+   }
+}
@@ -0,0 +1,74 @@
+package stripedLock;
+
+/**
+ * A batch of transfers held in parallel arrays, together with a bitmap that
+ * records which of them went through.
+ */
+public class TransferBatch
+{
+   private final int[] from;
+   private final int[] to;
+   private final long[] amounts;
+   private final long[] succeeded;
+
+   /**
+    * Constructs a batch. Item i moves amounts[i] from account from[i] to
+    * account to[i]. The arrays are used directly, not copied.
+    * @param from the accounts to transfer from
+    * @param to the accounts to transfer to
+    * @param amounts the amounts to transfer, in cents
+    */
+   public TransferBatch(int[] from, int[] to, long[] amounts)
+   {
+      if (from.length != to.length || from.length != amounts.length)
+         throw new IllegalArgumentException("Arrays differ in length");
+      this.from = from;
+      this.to = to;
+      this.amounts = amounts;
+      succeeded = new long[(from.length + 63) / 64];
+   }
+
+   /**
+    * Gets the number of transfers in the batch.
+    * @return the number of transfers
+    */
+   public int size()
+   {
+      return from.length;
+   }
+
+   int from(int i) { return from[i]; }
+   int to(int i) { return to[i]; }
+   long amount(int i) { return amounts[i]; }
+
+   void setSucceeded(int i, boolean ok)
+   {
+      if (ok)
+         succeeded[i >> 6] |= 1L << i;
+      else
+         succeeded[i >> 6] &= ~(1L << i);
+   }
+
+   /**
+    * Tells whether a transfer went through when the batch was applied.
+    * @param i the index of the transfer
+    * @return true if the money was moved, false if the source account had
+    * insufficient funds
+    */
+   public boolean succeeded(int i)
+   {
+      return (succeeded[i >> 6] & (1L << i)) != 0;
+   }
+
+   /**
+    * Gets the number of transfers that went through.
+    * @return the number of successful transfers
+    */
+   public int getSuccessCount()
+   {
+      int count = 0;
+      for (long bits : succeeded)
+         count += Long.bitCount(bits);
+      return count;
+   }
+}
@@ -0,0 +1,81 @@
+package synch;
+
+import money.*;
+
+/**
+ * Something that an audit of a bank found to be wrong.
+ */
+public class AuditAlert
+{
+   /**
+    * The kinds of problems an audit looks for.
+    */
+   public enum Kind
+   {
+      /**
+       * The balances do not add up to the total that the bank was opened
+       * with, so a transfer created or destroyed money.
+       */
+      TOTAL_MISMATCH,
+
+      /**
+       * An account holds less than nothing, so a transfer took more than the
+       * account had.
+       */
+      NEGATIVE_BALANCE
+   }
+
+   private final Kind kind;
+   private final long epoch;
+   private final int account;
+   private final long expected;
+   private final long actual;
+
+   /**
+    * Constructs an alert.
+    * @param kind the kind of problem
+    * @param epoch the number of the audit that found it
+    * @param account the account concerned, or -1 for the whole bank
+    * @param expected the amount that should have been found, in cents
+    * @param actual the amount that was found, in cents
+    */
+   public AuditAlert(Kind kind, long epoch, int account, long expected, long actual)
+   {
+      this.kind = kind;
+      this.epoch = epoch;
+      this.account = account;
+      this.expected = expected;
+      this.actual = actual;
+   }
+
+   public Kind getKind()
+   {
+      return kind;
+   }
+
+   public long getEpoch()
+   {
+      return epoch;
+   }
+
+   public int getAccount()
+   {
+      return account;
+   }
+
+   public long getExpected()
+   {
+      return expected;
+   }
+
+   public long getActual()
+   {
+      return actual;
+   }
+
+   public String toString()
+   {
+      return String.format("Audit %d: %s%s: expected %s, found %s", epoch, kind,
+         account < 0 ? "" : " in account " + account, Money.format(expected), Money.format(actual));
+   }
+}
@@ -0,0 +1,236 @@
+package synch;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Checks that a bank preserves its total and never overdraws an account,
+ * while transfers go on. Each audit looks at the balances as of one moment
+ * between transfers, see {@link EpochSnapshot}. A fork-join task per chunk
+ * copies the chunk under the bank lock and checks it, and the results are
+ * added up as the tasks join. The bank lock is held for one chunk at a time,
+ * so a transfer waits for at most one chunk copy by the auditor, plus the
+ * copies of its own two chunks if the audit has not reached them yet.
+ */
+public class Auditor implements AutoCloseable
+{
+   public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+   private final Bank bank;
+   private final int chunkSize;
+   private final ForkJoinPool pool;
+   private final Consumer<AuditAlert> alerts;
+   private ScheduledExecutorService scheduler;
+
+   /**
+    * Constructs an auditor that checks chunks of the default size in the
+    * common fork-join pool.
+    * @param bank the bank to audit
+    * @param alerts receives the problems that audits find
+    */
+   public Auditor(Bank bank, Consumer<AuditAlert> alerts)
+   {
+      this(bank, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool(), alerts);
+   }
+
+   /**
+    * Constructs an auditor.
+    * @param bank the bank to audit
+    * @param chunkSize the number of accounts to copy under the bank lock at
+    * a time
+    * @param pool the pool that checks the chunks
+    * @param alerts receives the problems that audits find
+    */
+   public Auditor(Bank bank, int chunkSize, ForkJoinPool pool, Consumer<AuditAlert> alerts)
+   {
+      if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize " + chunkSize);
+      this.bank = bank;
+      this.chunkSize = chunkSize;
+      this.pool = pool;
+      this.alerts = alerts;
+   }
+
+   /**
+    * The outcome of one audit.
+    */
+   public static class Report
+   {
+      private final long epoch;
+      private final long total;
+      private final long expected;
+      private final List<AuditAlert> alerts;
+      private final long nanos;
+
+      Report(long epoch, long total, long expected, List<AuditAlert> alerts, long nanos)
+      {
+         this.epoch = epoch;
+         this.total = total;
+         this.expected = expected;
+         this.alerts = Collections.unmodifiableList(alerts);
+         this.nanos = nanos;
+      }
+
+      public long getEpoch()
+      {
+         return epoch;
+      }
+
+      /**
+       * Gets the sum of the audited balances.
+       * @return the total, in cents
+       */
+      public long getTotal()
+      {
+         return total;
+      }
+
+      public long getExpected()
+      {
+         return expected;
+      }
+
+      public List<AuditAlert> getAlerts()
+      {
+         return alerts;
+      }
+
+      public long getNanos()
+      {
+         return nanos;
+      }
+
+      public boolean isClean()
+      {
+         return alerts.isEmpty();
+      }
+   }
+
+   /**
+    * Audits the bank once and passes the problems found to the alert
+    * consumer.
+    * @return the report
+    */
+   public synchronized Report audit()
+   {
+      long start = System.nanoTime();
+      EpochSnapshot snapshot = bank.beginAudit(chunkSize);
+      Partial result;
+      try
+      {
+         result = pool.invoke(new ChunkTask(snapshot, 0, snapshot.getChunkCount()));
+      }
+      finally
+      {
+         bank.endAudit(snapshot);
+      }
+      long expected = bank.getTotalBalance();
+      if (result.total != expected)
+         result.alerts.add(new AuditAlert(AuditAlert.Kind.TOTAL_MISMATCH, snapshot.getEpoch(), -1,
+            expected, result.total));
+      for (AuditAlert a : result.alerts)
+         alerts.accept(a);
+      return new Report(snapshot.getEpoch(), result.total, expected, result.alerts,
+         System.nanoTime() - start);
+   }
+
+   /**
+    * Audits the bank periodically in a background thread until the auditor
+    * is closed.
+    * @param period the time between the starts of two audits
+    * @param unit the unit of period
+    */
+   public synchronized void start(long period, TimeUnit unit)
+   {
+      if (scheduler != null) throw new IllegalStateException("Already started");
+      scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+         var t = new Thread(r, "bank-auditor");
+         t.setDaemon(true);
+         return t;
+      });
+      scheduler.scheduleAtFixedRate(this::scheduledAudit, period, period, unit);
+   }
+
+   /**
+    * Runs one periodic audit. An exception that escaped would cancel all
+    * later runs, so it is reported here and the next audit runs as planned.
+    */
+   private void scheduledAudit()
+   {
+      try
+      {
+         audit();
+      }
+      catch (RuntimeException e)
+      {
+         e.printStackTrace();
+      }
+   }
+
+   /**
+    * Stops the periodic audits. An audit in progress runs to completion.
+    */
+   public void close()
+   {
+      ScheduledExecutorService s;
+      synchronized (this)
+      {
+         s = scheduler;
+      }
+      if (s != null) s.shutdown();
+   }
+
+   private static class Partial
+   {
+      long total;
+      List<AuditAlert> alerts = new ArrayList<>();
+   }
+
+   /**
+    * Copies and checks a range of chunks.
+    */
+   private class ChunkTask extends RecursiveTask<Partial>
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final EpochSnapshot snapshot;
+      private final int from;
+      private final int to;
+
+      ChunkTask(EpochSnapshot snapshot, int from, int to)
+      {
+         this.snapshot = snapshot;
+         this.from = from;
+         this.to = to;
+      }
+
+      protected Partial compute()
+      {
+         if (to - from <= 1)
+         {
+            var result = new Partial();
+            if (from == to) return result;
+            bank.copyChunk(snapshot, from);
+            long[] balances = snapshot.getBalances();
+            int end = Math.min(balances.length, (from + 1) * snapshot.getChunkSize());
+            for (int i = from * snapshot.getChunkSize(); i < end; i++)
+            {
+               result.total += balances[i];
+               if (balances[i] < 0)
+                  result.alerts.add(new AuditAlert(AuditAlert.Kind.NEGATIVE_BALANCE,
+                     snapshot.getEpoch(), i, 0, balances[i]));
+            }
+            return result;
+         }
+         int mid = (from + to) >>> 1;
+         var first = new ChunkTask(snapshot, from, mid);
+         var second = new ChunkTask(snapshot, mid, to);
+         invokeAll(first, second);
+         Partial result = first.join();
+         Partial other = second.join();
+         result.total += other.total;
+         result.alerts.addAll(other.alerts);
+         return result;
+      }
+   }
+}
@@ -1,78 +1,605 @@
 package synch;
 
+import java.lang.invoke.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.concurrent.locks.*;
+import money.*;
+import replica.*;
+import transferLog.*;
 
 /**
  * A bank with a number of bank accounts that uses locks for serializing access.
+ * Balances and amounts are whole cents, see {@link Money}.
  */
 public class Bank
 {
-   private final double[] accounts;
+   private final long[] accounts;
    private Lock bankLock;
-   private Condition sufficientFunds;
+   private final TransferPolicy policy;
+   private final TransferSink log;
+
+   // The transfers waiting for money in each account, created when the first
+   // transfer has to wait. Each waiter has its own condition, so a credit
+   // wakes only the waiters that the new balance can pay.
+   private final Collection<?>[] waiters;
+   private long waiterSeq;
+
+   // Transfers only move money between accounts, so the total is fixed
+   // when the bank is constructed and never has to be recomputed.
+   private final long totalBalance;
+   private final int shardSize;
+   private final LongAdder[] shardBalances;
+
+   // A sequence lock for readers that do not take bankLock. Writers make the
+   // version odd while they change balances and even again when they are done.
+   private static final int OPTIMISTIC_TRIES = 8;
+   private volatile long version;
+
+   // A copy of the balances for getBalance, published in batches.
+   private final BalanceReplica replica;
+
+   // The audit in progress, if any, and the number of the last one.
+   private EpochSnapshot audit;
+   private long auditEpoch;
+
+   private final BankStats stats = new BankStats();
+
+   /**
+    * Constructs the bank, logging every transfer to standard output.
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    */
+   public Bank(int n, long initialBalance)
+   {
+      this(n, initialBalance, AsyncTransferSink.console());
+   }
 
    /**
     * Constructs the bank.
     * @param n the number of accounts
-    * @param initialBalance the initial balance for each account
+    * @param initialBalance the initial balance for each account, in cents
+    * @param log the sink that records completed transfers
+    */
+   public Bank(int n, long initialBalance, TransferSink log)
+   {
+      this(n, initialBalance, log, 0);
+   }
+
+   /**
+    * Constructs the bank with subtotals for consecutive ranges of accounts.
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    * @param log the sink that records completed transfers
+    * @param shards the number of account ranges to keep a subtotal for, or 0
+    * for no subtotals
+    */
+   public Bank(int n, long initialBalance, TransferSink log, int shards)
+   {
+      this(n, initialBalance, log, shards, TransferPolicy.defaultPolicy());
+   }
+
+   /**
+    * Constructs the bank with a given lock and waiting policy.
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    * @param log the sink that records completed transfers
+    * @param shards the number of account ranges to keep a subtotal for, or 0
+    * for no subtotals
+    * @param policy the lock fairness and the order of waiting transfers
+    */
+   public Bank(int n, long initialBalance, TransferSink log, int shards, TransferPolicy policy)
+   {
+      this(n, initialBalance, log, shards, policy, ReplicaPolicy.defaultPolicy());
+   }
+
+   /**
+    * Constructs the bank with a given lock and waiting policy and a given
+    * staleness of the balances that {@link #getBalance} reports.
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    * @param log the sink that records completed transfers
+    * @param shards the number of account ranges to keep a subtotal for, or 0
+    * for no subtotals
+    * @param policy the lock fairness and the order of waiting transfers
+    * @param replicaPolicy how often the balance replica is brought up to date
     */
-   public Bank(int n, double initialBalance)
+   public Bank(int n, long initialBalance, TransferSink log, int shards, TransferPolicy policy,
+      ReplicaPolicy replicaPolicy)
    {
-      accounts = new double[n];
+      if (shards < 0 || shards > n) throw new IllegalArgumentException("shards " + shards);
+      this.log = log;
+      accounts = new long[n];
       Arrays.fill(accounts, initialBalance);
-      bankLock = new ReentrantLock();
-      sufficientFunds = bankLock.newCondition();
+      totalBalance = Math.multiplyExact(n, initialBalance);
+      shardSize = shards == 0 ? n : (n + shards - 1) / shards;
+      shardBalances = new LongAdder[shards];
+      for (int i = 0; i < shards; i++)
+      {
+         shardBalances[i] = new LongAdder();
+         shardBalances[i].add(Math.min(shardSize, n - i * shardSize) * initialBalance);
+      }
+      this.policy = policy;
+      bankLock = new ReentrantLock(policy.isFairLock());
+      waiters = new Collection<?>[n];
+      replica = new BalanceReplica(accounts, replicaPolicy, this::publishReplica);
    }
 
    /**
-    * Transfers money from one account to another.
+    * Transfers money from one account to another, waiting as long as it takes
+    * for the source account to hold enough money. The transfer is logged after
+    * the lock is released, so the lock only guards the balance updates.
     * @param from the account to transfer from
     * @param to the account to transfer to
-    * @param amount the amount to transfer
+    * @param amount the amount to transfer, in cents
     */
-   public void transfer(int from, int to, double amount) throws InterruptedException
+   public void transfer(int from, int to, long amount) throws InterruptedException
    {
-      bankLock.lock();
+      long acquired = lock();
+      long waited = 0;
       try
       {
-         while (accounts[from] < amount)
-            sufficientFunds.await();
-         System.out.print(Thread.currentThread());
-         accounts[from] -= amount;
-         System.out.printf(" %10.2f from %d to %d", amount, from, to);
-         accounts[to] += amount;
-         System.out.printf(" Total Balance: %10.2f%n", getTotalBalance());
-         sufficientFunds.signalAll();
+         if (!mayProceed(from, amount))
+         {
+            long start = System.nanoTime();
+            try
+            {
+               awaitFunds(from, amount, -1);
+            }
+            finally
+            {
+               waited = System.nanoTime() - start;
+            }
+         }
+         move(from, to, amount);
       }
       finally
       {
-         bankLock.unlock();
+         unlock(acquired + waited);
       }
+      log.transferred(from, to, amount);
    }
 
    /**
-    * Gets the sum of all account balances.
-    * @return the total balance
+    * Transfers money from one account to another, waiting at most the given
+    * time for the source account to hold enough money. Use this instead of
+    * transfer when the account may never be credited, so that the calling
+    * thread is not tied up forever.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    * @param timeout the maximum time to wait
+    * @param unit the unit of the timeout
+    * @return true if the money was moved, false if the time ran out first
     */
-   public double getTotalBalance()
+   public boolean tryTransfer(int from, int to, long amount, long timeout, TimeUnit unit)
+      throws InterruptedException
    {
+      long acquired = lock();
+      long waited = 0;
+      try
+      {
+         if (!mayProceed(from, amount))
+         {
+            long start = System.nanoTime();
+            try
+            {
+               if (!awaitFunds(from, amount, unit.toNanos(timeout))) return false;
+            }
+            finally
+            {
+               waited = System.nanoTime() - start;
+            }
+         }
+         move(from, to, amount);
+      }
+      finally
+      {
+         unlock(acquired + waited);
+      }
+      log.transferred(from, to, amount);
+      return true;
+   }
+
+   /**
+    * Acquires the bank lock, timing the wait only if the lock is contended.
+    * @return the time at which the lock was acquired
+    */
+   private long lock()
+   {
+      if (tryLockNow())
+      {
+         stats.lockAcquired();
+         return System.nanoTime();
+      }
+      var event = new BankEvents.LockWait();
+      event.begin();
+      long start = System.nanoTime();
       bankLock.lock();
+      long acquired = System.nanoTime();
+      event.commit();
+      stats.lockAcquired(acquired - start);
+      return acquired;
+   }
+
+   /**
+    * Acquires the bank lock if it is free. Unlike the untimed tryLock, this
+    * does not barge ahead of queued threads when the lock is fair.
+    * @return true if the lock was acquired
+    */
+   private boolean tryLockNow()
+   {
+      try
+      {
+         return bankLock.tryLock(0, TimeUnit.NANOSECONDS);
+      }
+      catch (InterruptedException e)
+      {
+         // Leave the interrupt for the caller; the slow path takes the lock
+         // regardless.
+         Thread.currentThread().interrupt();
+         return false;
+      }
+   }
+
+   /**
+    * Releases the bank lock and records how long it was held.
+    * @param acquired the time the lock was acquired, moved forward by the
+    * time spent waiting on a condition, during which the lock was free
+    */
+   private void unlock(long acquired)
+   {
+      long held = System.nanoTime() - acquired;
+      bankLock.unlock();
+      stats.lockReleased(held);
+   }
+
+   /**
+    * A transfer waiting for money in its source account.
+    */
+   private static class Waiter
+   {
+      final Condition condition;
+      final long amount;
+      final long seq;
+      boolean signalled;
+
+      Waiter(Condition condition, long amount, long seq)
+      {
+         this.condition = condition;
+         this.amount = amount;
+         this.seq = seq;
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   private Collection<Waiter> waitersOf(int account)
+   {
+      return (Collection<Waiter>) waiters[account];
+   }
+
+   /**
+    * Tells whether a transfer that has not waited yet may take money from an
+    * account now. Must be called while holding bankLock.
+    */
+   private boolean mayProceed(int account, long amount)
+   {
+      if (accounts[account] < amount) return false;
+      Collection<Waiter> queue = waitersOf(account);
+      if (queue == null || queue.isEmpty()) return true;
+      if (policy.getWaitOrder() == TransferPolicy.WaitOrder.FIFO) return false;
+      stats.bypassed();
+      return true;
+   }
+
+   /**
+    * Waits until an account holds at least the given amount and it is this
+    * transfer's turn. Must be called while holding bankLock.
+    * @param nanos the longest time to wait, or a negative value for no limit
+    * @return true if the transfer may proceed, false if the time ran out
+    */
+   private boolean awaitFunds(int account, long amount, long nanos) throws InterruptedException
+   {
+      var event = new BankEvents.FundsWait();
+      event.begin();
+      long start = System.nanoTime();
+      boolean timed = nanos >= 0;
+      boolean ok = false;
+      int futile = 0;
+      Collection<Waiter> queue = waitersOf(account);
+      if (queue == null)
+      {
+         if (policy.getWaitOrder() == TransferPolicy.WaitOrder.FIFO)
+            queue = new ArrayDeque<>();
+         else
+            queue = new TreeSet<>(Comparator.<Waiter>comparingLong(w -> w.amount)
+               .thenComparingLong(w -> w.seq));
+         waiters[account] = queue;
+      }
+      var waiter = new Waiter(bankLock.newCondition(), amount, waiterSeq++);
+      queue.add(waiter);
+      stats.waitStarted();
       try
       {
-         double sum = 0;
+         while (true)
+         {
+            waiter.signalled = false;
+            if (!timed)
+               waiter.condition.await();
+            else if (nanos > 0)
+               nanos = waiter.condition.awaitNanos(nanos);
+            if (accounts[account] >= amount && (policy.getWaitOrder() != TransferPolicy.WaitOrder.FIFO
+                  || ((Deque<Waiter>) queue).peekFirst() == waiter))
+               return ok = true;
+            if (timed && nanos <= 0) return false;
+            futile++;
+            stats.futileWakeup();
+         }
+      }
+      finally
+      {
+         queue.remove(waiter);
+         // A waiter that gives up may have been holding up the ones behind it.
+         if (!ok) wakeWaiters(account);
+         long waited = System.nanoTime() - start;
+         stats.waitEnded(waited, !ok);
+         event.end();
+         if (event.shouldCommit())
+         {
+            event.account = account;
+            event.amount = amount;
+            event.futileWakeups = futile;
+            event.timedOut = !ok;
+            event.commit();
+         }
+      }
+   }
+
+   /**
+    * Signals the waiters of an account that its balance can now pay, in the
+    * order of the wait policy. Must be called while holding bankLock.
+    */
+   private void wakeWaiters(int account)
+   {
+      Collection<Waiter> queue = waitersOf(account);
+      if (queue == null || queue.isEmpty()) return;
+      long available = accounts[account];
+      for (Waiter w : queue)
+      {
+         if (w.amount > available) return;
+         available -= w.amount;
+         if (!w.signalled)
+         {
+            w.signalled = true;
+            w.condition.signal();
+         }
+         // Only the head may go; it wakes its successor when it has moved
+         // its money.
+         if (policy.getWaitOrder() == TransferPolicy.WaitOrder.FIFO) return;
+      }
+   }
 
-         for (double a : accounts)
+   /**
+    * Moves money between accounts and wakes the transfers waiting on either
+    * account that can now go ahead. Must be called while holding bankLock.
+    */
+   private void move(int from, int to, long amount)
+   {
+      if (audit != null) audit.beforeWrite(from, to, accounts);
+      long v = version;
+      version = v + 1;
+      VarHandle.storeStoreFence();
+      accounts[from] -= amount;
+      accounts[to] = Money.add(accounts[to], amount);
+      version = v + 2;
+      replica.changed(from, to, accounts);
+      if (shardBalances.length > 0 && from / shardSize != to / shardSize)
+      {
+         shardBalances[from / shardSize].add(-amount);
+         shardBalances[to / shardSize].add(amount);
+      }
+      wakeWaiters(to);
+      // The next waiter on the source account may fit into what is left.
+      if (from != to) wakeWaiters(from);
+   }
+
+   /**
+    * Gets the balance of an account from the replica, without the bank lock.
+    * The balance may lag behind the transfers by up to the staleness that
+    * the replica policy allows, but it always includes either all or none of
+    * a transfer.
+    * @param account the account number
+    * @return the balance, in cents
+    */
+   public long getBalance(int account)
+   {
+      return replica.get(account);
+   }
+
+   /**
+    * Publishes the changes that are pending in the replica. Called by the
+    * replica when its oldest change is getting too stale.
+    */
+   private void publishReplica()
+   {
+      long acquired = lock();
+      try
+      {
+         replica.publish(accounts);
+      }
+      finally
+      {
+         unlock(acquired);
+      }
+   }
+
+   /**
+    * Gets the sum of all account balances. The total is maintained by the
+    * bank, so this takes constant time and does not lock.
+    * @return the total balance, in cents
+    */
+   public long getTotalBalance()
+   {
+      return totalBalance;
+   }
+
+   /**
+    * Gets the sum of the balances in one range of accounts, without locking.
+    * @param shard the range number, between 0 and {@link #getShardCount()}
+    * @return the subtotal of that range, in cents
+    */
+   public long getShardBalance(int shard)
+   {
+      return shardBalances[shard].sum();
+   }
+
+   /**
+    * Gets the number of account ranges that keep a subtotal.
+    * @return the number of ranges, or 0 if the bank keeps no subtotals
+    */
+   public int getShardCount()
+   {
+      return shardBalances.length;
+   }
+
+   /**
+    * Copies all account balances as of one moment between transfers. The copy
+    * is made without the bank lock and is retried only if a transfer changed
+    * a balance while it was being made. After repeated interference the copy
+    * is made under the lock, so busy writers cannot starve the reader.
+    * @param into the array that receives the balances; its length must be at
+    * least {@link #size()}
+    * @return the sum of the copied balances, in cents
+    */
+   public long snapshot(long[] into)
+   {
+      for (int tries = 0; tries < OPTIMISTIC_TRIES; tries++)
+      {
+         long v = version;
+         if ((v & 1) != 0)
+         {
+            Thread.onSpinWait();
+            continue;
+         }
+         System.arraycopy(accounts, 0, into, 0, accounts.length);
+         VarHandle.loadLoadFence();
+         if (version == v) return sum(into);
+      }
+
+      long acquired = lock();
+      try
+      {
+         System.arraycopy(accounts, 0, into, 0, accounts.length);
+      }
+      finally
+      {
+         unlock(acquired);
+      }
+      return sum(into);
+   }
+
+   private long sum(long[] balances)
+   {
+      long sum = 0;
+
+      for (int i = 0; i < accounts.length; i++)
+         sum += balances[i];
+
+      return sum;
+   }
+
+   /**
+    * Adds up all account balances while holding the bank lock. This is an
+    * expensive check that blocks every transfer for a full scan; use it to
+    * verify {@link #getTotalBalance()}, not to report it.
+    * @return the recounted total balance, in cents
+    */
+   public long recountTotalBalance()
+   {
+      long acquired = lock();
+      try
+      {
+         long sum = 0;
+
+         for (long a : accounts)
             sum += a;
 
          return sum;
       }
       finally
       {
-         bankLock.unlock();
+         unlock(acquired);
       }
    }
 
+   /**
+    * Starts an audit of the balances as they are now. Only one audit may run
+    * at a time.
+    * @param chunkSize the number of accounts that the auditor copies at a time
+    * @return the snapshot to copy the chunks into
+    */
+   EpochSnapshot beginAudit(int chunkSize)
+   {
+      long acquired = lock();
+      try
+      {
+         if (audit != null) throw new IllegalStateException("Audit " + audit.getEpoch() + " in progress");
+         audit = new EpochSnapshot(++auditEpoch, accounts.length, chunkSize);
+         return audit;
+      }
+      finally
+      {
+         unlock(acquired);
+      }
+   }
+
+   /**
+    * Copies one chunk of the audited balances, holding the bank lock for
+    * just that chunk. The chunk holds the balances from the start of the
+    * audit even if transfers have changed them since.
+    * @param snapshot the snapshot returned by {@link #beginAudit}
+    * @param chunk the chunk number
+    */
+   void copyChunk(EpochSnapshot snapshot, int chunk)
+   {
+      long acquired = lock();
+      try
+      {
+         snapshot.copy(chunk, accounts);
+      }
+      finally
+      {
+         unlock(acquired);
+      }
+   }
+
+   /**
+    * Ends an audit, so that transfers no longer save their balances for it.
+    * @param snapshot the snapshot returned by {@link #beginAudit}
+    */
+   void endAudit(EpochSnapshot snapshot)
+   {
+      long acquired = lock();
+      try
+      {
+         if (audit == snapshot) audit = null;
+      }
+      finally
+      {
+         unlock(acquired);
+      }
+   }
+
+   /**
+    * Gets the lock and wait statistics of this bank.
+    * @return the statistics
+    */
+   public BankStats getStats()
+   {
+      return stats;
+   }
+
    /**
     * Gets the number of accounts in the bank.
     * @return the number of accounts
@@ -0,0 +1,39 @@
+package synch;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder events for the bank. They cost next to nothing unless a
+ * recording enables them.
+ */
+class BankEvents
+{
+   @Name("synch.LockWait")
+   @Label("Bank Lock Wait")
+   @Category("Bank")
+   @Description("A thread waited to acquire the bank lock")
+   static class LockWait extends Event
+   {
+   }
+
+   @Name("synch.FundsWait")
+   @Label("Sufficient Funds Wait")
+   @Category("Bank")
+   @Description("A transfer waited for its source account to hold enough money")
+   static class FundsWait extends Event
+   {
+      @Label("Account")
+      int account;
+
+      @Label("Amount")
+      @Description("The amount to transfer, in cents")
+      long amount;
+
+      @Label("Futile Wakeups")
+      @Description("Wakeups that found the balance still insufficient")
+      int futileWakeups;
+
+      @Label("Timed Out")
+      boolean timedOut;
+   }
+}
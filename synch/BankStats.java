@@ -0,0 +1,143 @@
+package synch;
+
+import java.lang.management.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+ * Counts how long the threads of a bank wait for and hold the bank lock, and
+ * how long they wait for sufficient funds. The counters are LongAdders, which
+ * spread concurrent updates over separate cells instead of contending on one
+ * word.
+ */
+public class BankStats implements BankStatsMXBean
+{
+   /**
+    * A histogram with one bucket per power of two.
+    */
+   private static class Histogram
+   {
+      private final LongAdder[] buckets = new LongAdder[64];
+
+      Histogram()
+      {
+         for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+      }
+
+      void record(long nanos)
+      {
+         buckets[63 - Long.numberOfLeadingZeros(Math.max(nanos, 1))].increment();
+      }
+
+      long[] get()
+      {
+         var result = new long[buckets.length];
+         for (int i = 0; i < buckets.length; i++)
+            result[i] = buckets[i].sum();
+         return result;
+      }
+
+      void reset()
+      {
+         for (LongAdder b : buckets)
+            b.reset();
+      }
+   }
+
+   private final LongAdder acquisitions = new LongAdder();
+   private final LongAdder contended = new LongAdder();
+   private final LongAdder lockWaitNanos = new LongAdder();
+   private final Histogram lockWaits = new Histogram();
+   private final LongAdder lockHoldNanos = new LongAdder();
+   private final Histogram lockHolds = new Histogram();
+   private final LongAdder fundsWaits = new LongAdder();
+   private final LongAdder fundsWaitNanos = new LongAdder();
+   private final Histogram fundsWaitTimes = new Histogram();
+   private final LongAdder futileWakeups = new LongAdder();
+   private final LongAdder timeouts = new LongAdder();
+   private final LongAdder bypasses = new LongAdder();
+   private final LongAdder waiting = new LongAdder();
+   private final LongAccumulator maxFundsWait = new LongAccumulator(Math::max, 0);
+
+   void lockAcquired()
+   {
+      acquisitions.increment();
+   }
+
+   void lockAcquired(long waitNanos)
+   {
+      acquisitions.increment();
+      contended.increment();
+      lockWaitNanos.add(waitNanos);
+      lockWaits.record(waitNanos);
+   }
+
+   void lockReleased(long holdNanos)
+   {
+      lockHoldNanos.add(holdNanos);
+      lockHolds.record(holdNanos);
+   }
+
+   void waitStarted()
+   {
+      waiting.increment();
+   }
+
+   void waitEnded(long nanos, boolean gaveUp)
+   {
+      waiting.decrement();
+      fundsWaits.increment();
+      fundsWaitNanos.add(nanos);
+      fundsWaitTimes.record(nanos);
+      maxFundsWait.accumulate(nanos);
+      if (gaveUp) timeouts.increment();
+   }
+
+   void bypassed()
+   {
+      bypasses.increment();
+   }
+
+   void futileWakeup()
+   {
+      futileWakeups.increment();
+   }
+
+   public long getLockAcquisitions() { return acquisitions.sum(); }
+   public long getContendedAcquisitions() { return contended.sum(); }
+   public long getLockWaitNanos() { return lockWaitNanos.sum(); }
+   public long[] getLockWaitHistogram() { return lockWaits.get(); }
+   public long getLockHoldNanos() { return lockHoldNanos.sum(); }
+   public long[] getLockHoldHistogram() { return lockHolds.get(); }
+   public long getFundsWaits() { return fundsWaits.sum(); }
+   public long getFundsWaitNanos() { return fundsWaitNanos.sum(); }
+   public long[] getFundsWaitHistogram() { return fundsWaitTimes.get(); }
+   public long getFutileWakeups() { return futileWakeups.sum(); }
+   public long getFundsWaitTimeouts() { return timeouts.sum(); }
+   public long getMaxFundsWaitNanos() { return maxFundsWait.get(); }
+   public long getBypasses() { return bypasses.sum(); }
+   public long getWaitingTransfers() { return waiting.sum(); }
+
+   public void reset()
+   {
+      for (LongAdder a : new LongAdder[] { acquisitions, contended, lockWaitNanos, lockHoldNanos,
+            fundsWaits, fundsWaitNanos, futileWakeups, timeouts, bypasses })
+         a.reset();
+      maxFundsWait.reset();
+      lockWaits.reset();
+      lockHolds.reset();
+      fundsWaitTimes.reset();
+   }
+
+   /**
+    * Registers these statistics with the platform MBean server, under the
+    * name synch:type=Bank,name=<i>name</i>.
+    * @param name the name that tells this bank apart from others
+    */
+   public void register(String name) throws JMException
+   {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+         new ObjectName("synch:type=Bank,name=" + ObjectName.quote(name)));
+   }
+}
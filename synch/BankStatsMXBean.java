@@ -0,0 +1,52 @@
+package synch;
+
+/**
+ * The contention statistics of a bank, as seen through JMX. Times are in
+ * nanoseconds. A histogram is an array whose element i counts the times
+ * between 2^i and 2^(i+1) - 1 nanoseconds.
+ */
+public interface BankStatsMXBean
+{
+   long getLockAcquisitions();
+   long getContendedAcquisitions();
+   long getLockWaitNanos();
+   long[] getLockWaitHistogram();
+   long getLockHoldNanos();
+   long[] getLockHoldHistogram();
+   long getFundsWaits();
+   long getFundsWaitNanos();
+   long[] getFundsWaitHistogram();
+   long getFutileWakeups();
+
+   /**
+    * Gets the number of transfers that gave up waiting for funds because
+    * their timeout ran out or they were interrupted.
+    * @return the number of abandoned waits
+    */
+   long getFundsWaitTimeouts();
+
+   /**
+    * Gets the longest time a transfer has waited for funds, the first sign
+    * of a starving transfer.
+    * @return the longest wait, in nanoseconds
+    */
+   long getMaxFundsWaitNanos();
+
+   /**
+    * Gets the number of transfers that took money from an account while
+    * earlier transfers were still waiting on it.
+    * @return the number of overtaking transfers
+    */
+   long getBypasses();
+
+   /**
+    * Gets the number of transfers waiting for funds right now.
+    * @return the number of waiting transfers
+    */
+   long getWaitingTransfers();
+
+   /**
+    * Clears all counters and histograms.
+    */
+   void reset();
+}
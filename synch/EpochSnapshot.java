@@ -0,0 +1,81 @@
+package synch;
+
+/**
+ * A copy of all balances as of the start of an audit, made one chunk at a
+ * time. The auditor copies the chunks at its own pace; a transfer that is
+ * about to change an account whose chunk has not been copied yet copies that
+ * chunk first, so the copy keeps the balances from before the change. Either
+ * way every chunk is copied exactly once, as of the start of the audit. All
+ * methods must be called while holding the bank lock.
+ */
+class EpochSnapshot
+{
+   private final long epoch;
+   private final int chunkSize;
+   private final long[] balances;
+   private final boolean[] copied;
+
+   /**
+    * Constructs a snapshot of which no chunk has been copied yet.
+    * @param epoch the number of the audit
+    * @param n the number of accounts
+    * @param chunkSize the number of accounts in a chunk
+    */
+   EpochSnapshot(long epoch, int n, int chunkSize)
+   {
+      this.epoch = epoch;
+      this.chunkSize = chunkSize;
+      balances = new long[n];
+      copied = new boolean[getChunkCount()];
+   }
+
+   long getEpoch()
+   {
+      return epoch;
+   }
+
+   int getChunkSize()
+   {
+      return chunkSize;
+   }
+
+   int getChunkCount()
+   {
+      return (balances.length + chunkSize - 1) / chunkSize;
+   }
+
+   /**
+    * Gets the copied balances. A chunk may only be read after
+    * {@link #copy} has returned for it.
+    * @return the balances, one element per account
+    */
+   long[] getBalances()
+   {
+      return balances;
+   }
+
+   /**
+    * Copies a chunk from the bank unless it was copied before.
+    * @param chunk the chunk number
+    * @param accounts the balances of the bank
+    */
+   void copy(int chunk, long[] accounts)
+   {
+      if (copied[chunk]) return;
+      int from = chunk * chunkSize;
+      System.arraycopy(accounts, from, balances, from, Math.min(chunkSize, balances.length - from));
+      copied[chunk] = true;
+   }
+
+   /**
+    * Saves the balances that a transfer is about to change.
+    * @param from the account to be debited
+    * @param to the account to be credited
+    * @param accounts the balances of the bank
+    */
+   void beforeWrite(int from, int to, long[] accounts)
+   {
+      copy(from / chunkSize, accounts);
+      copy(to / chunkSize, accounts);
+   }
+}
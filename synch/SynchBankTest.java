@@ -1,5 +1,11 @@
 package synch;
 
+import java.util.concurrent.*;
+import javax.management.*;
+import loadGen.*;
+import money.*;
+import transferLog.*;
+
 /**
  * This program shows how multiple threads can safely access a data structure.
  * @version 1.32 2018-04-10
@@ -8,33 +14,70 @@ package synch;
 public class SynchBankTest
 {
    public static final int NACCOUNTS = 100;
-   public static final double INITIAL_BALANCE = 1000;
-   public static final double MAX_AMOUNT = 1000;
+   public static final long INITIAL_BALANCE = Money.ofUnits(1000);
+   public static final long MAX_AMOUNT = Money.ofUnits(1000);
    public static final int DELAY = 10;
+   public static final int REPORT_DELAY = 1000;
    
-   public static void main(String[] args)
+   /**
+    * @param args the load options, see {@link LoadOptions}, and --fair true|false
+    * and --wait-order FIFO|SMALLEST_FIRST for the transfer policy, and
+    * --audit-ms for the time between background audits
+    */
+   public static void main(String[] args) throws InterruptedException
    {
-      var bank = new Bank(NACCOUNTS, INITIAL_BALANCE);
-      for (int i = 0; i < NACCOUNTS; i++)
+      var options = new LoadOptions(args);
+      int naccounts = options.getInt("accounts", NACCOUNTS);
+      var policy = new TransferPolicy(Boolean.parseBoolean(options.get("fair", "false")),
+         TransferPolicy.WaitOrder.valueOf(options.get("wait-order", "FIFO")));
+      var bank = new Bank(naccounts, INITIAL_BALANCE, AsyncTransferSink.console(), 0, policy);
+      try
+      {
+         bank.getStats().register("SynchBankTest");
+      }
+      catch (JMException e)
       {
-         int fromAccount = i;
-         Runnable r = () -> {
-            try
+         e.printStackTrace();
+      }
+
+      // Add up a snapshot of the balances to check that the transfers
+      // preserve the total, without holding up the transfers.
+      Runnable reporter = () -> {
+         var balances = new long[naccounts];
+         try
+         {
+            while (true)
             {
-               while (true)
-               {
-                  int toAccount = (int) (bank.size() * Math.random());
-                  double amount = MAX_AMOUNT * Math.random();
-                  bank.transfer(fromAccount, toAccount, amount);
-                  Thread.sleep((int) (DELAY * Math.random()));
-               }
+               Thread.sleep(REPORT_DELAY);
+               System.out.printf("Total Balance: %10s%n", Money.format(bank.snapshot(balances)));
             }
-            catch (InterruptedException e)
-            {
-            }            
-         };
-         var t = new Thread(r);
-         t.start();
-      }
+         }
+         catch (InterruptedException e)
+         {
+         }
+      };
+      var t = new Thread(reporter);
+      t.setDaemon(true);
+      t.start();
+
+      var auditor = new Auditor(bank, alert -> System.err.println(alert));
+      auditor.start(options.getInt("audit-ms", REPORT_DELAY), TimeUnit.MILLISECONDS);
+
+      LoadGenerator.Report report = options.run(bank::transfer, naccounts, MAX_AMOUNT, DELAY);
+      auditor.close();
+      report.print(System.out);
+      BankStats stats = bank.getStats();
+      System.out.printf("Lock: %d acquisitions, %d contended, %.1f ms waiting, %.1f ms held%n",
+         stats.getLockAcquisitions(), stats.getContendedAcquisitions(),
+         stats.getLockWaitNanos() / 1e6, stats.getLockHoldNanos() / 1e6);
+      System.out.printf("Funds: %d waits, %.1f ms waiting, %d futile wakeups%n",
+         stats.getFundsWaits(), stats.getFundsWaitNanos() / 1e6, stats.getFutileWakeups());
+      System.out.printf("Starvation: longest wait %.1f ms, %d still waiting, %d bypasses%n",
+         stats.getMaxFundsWaitNanos() / 1e6, stats.getWaitingTransfers(), stats.getBypasses());
+      Auditor.Report audit = auditor.audit();
+      System.out.printf("Audit %d: %10s in %.1f ms, %s%n", audit.getEpoch(),
+         Money.format(audit.getTotal()), audit.getNanos() / 1e6,
+         audit.isClean() ? "clean" : audit.getAlerts().size() + " alerts");
+      System.out.printf("Total Balance: %10s%n", Money.format(bank.recountTotalBalance()));
    }
 }
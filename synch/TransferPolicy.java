@@ -0,0 +1,64 @@
+package synch;
+
+/**
+ * How a bank orders the threads competing for its lock and for the money in
+ * an account.
+ */
+public class TransferPolicy
+{
+   /**
+    * The order in which transfers waiting on an account get its money.
+    */
+   public enum WaitOrder
+   {
+      /**
+       * Strictly by arrival. A transfer never overtakes an earlier one on the
+       * same account, so a large transfer cannot starve, but it holds back
+       * every later transfer from that account until it goes through or
+       * times out.
+       */
+      FIFO,
+
+      /**
+       * Smallest amount first. New transfers may overtake waiting ones when
+       * the balance allows, which keeps money flowing but lets large
+       * transfers wait longer.
+       */
+      SMALLEST_FIRST
+   }
+
+   private final boolean fairLock;
+   private final WaitOrder waitOrder;
+
+   /**
+    * Constructs a policy.
+    * @param fairLock true to hand the bank lock to threads in arrival order,
+    * false to let a thread that arrives while the lock is free take it
+    * ahead of queued threads
+    * @param waitOrder the order of transfers waiting for funds
+    */
+   public TransferPolicy(boolean fairLock, WaitOrder waitOrder)
+   {
+      this.fairLock = fairLock;
+      this.waitOrder = waitOrder;
+   }
+
+   /**
+    * Gets the default policy: a barging lock and FIFO waiters.
+    * @return the default policy
+    */
+   public static TransferPolicy defaultPolicy()
+   {
+      return new TransferPolicy(false, WaitOrder.FIFO);
+   }
+
+   public boolean isFairLock()
+   {
+      return fairLock;
+   }
+
+   public WaitOrder getWaitOrder()
+   {
+      return waitOrder;
+   }
+}
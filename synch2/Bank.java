@@ -1,52 +1,163 @@
 package synch2;
 
 import java.util.*;
+import java.util.concurrent.*;
+import money.*;
+import replica.*;
+import transferLog.*;
 
 /**
  * A bank with a number of bank accounts that uses synchronization primitives.
+ * Balances and amounts are whole cents, see {@link Money}.
  */
 public class Bank
 {
-   private final double[] accounts;
+   private final long[] accounts;
+   private final TransferSink log;
+
+   // A wait queue per account that transfers out of that account wait on, so
+   // a credit wakes only the first transfer waiting on the credited account.
+   private final WaitQueue[] sufficientFunds;
+
+   // A copy of the balances for getBalance, published in batches.
+   private final BalanceReplica replica;
+
+   /**
+    * Constructs the bank, logging every transfer to standard output.
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    */
+   public Bank(int n, long initialBalance)
+   {
+      this(n, initialBalance, AsyncTransferSink.console());
+   }
 
    /**
     * Constructs the bank.
     * @param n the number of accounts
-    * @param initialBalance the initial balance for each account
+    * @param initialBalance the initial balance for each account, in cents
+    * @param log the sink that records completed transfers
     */
-   public Bank(int n, double initialBalance)
+   public Bank(int n, long initialBalance, TransferSink log)
    {
-      accounts = new double[n];
+      this(n, initialBalance, log, ReplicaPolicy.defaultPolicy());
+   }
+
+   /**
+    * Constructs the bank with a given staleness of the balances that
+    * {@link #getBalance} reports.
+    * @param n the number of accounts
+    * @param initialBalance the initial balance for each account, in cents
+    * @param log the sink that records completed transfers
+    * @param replicaPolicy how often the balance replica is brought up to date
+    */
+   public Bank(int n, long initialBalance, TransferSink log, ReplicaPolicy replicaPolicy)
+   {
+      this.log = log;
+      accounts = new long[n];
       Arrays.fill(accounts, initialBalance);
+      sufficientFunds = new WaitQueue[n];
+      for (int i = 0; i < n; i++)
+         sufficientFunds[i] = new WaitQueue();
+      replica = new BalanceReplica(accounts, replicaPolicy, this::publishReplica);
+   }
+
+   /**
+    * Transfers money from one account to another, waiting as long as it takes
+    * for the source account to hold enough money. Transfers out of an account
+    * go through in the order they started waiting, and a new transfer queues
+    * behind any that are waiting. The transfer is logged after leaving the
+    * monitor, so the monitor only guards the balance updates.
+    * @param from the account to transfer from
+    * @param to the account to transfer to
+    * @param amount the amount to transfer, in cents
+    */
+   public void transfer(int from, int to, long amount) throws InterruptedException
+   {
+      if (!tryMove(from, to, amount))
+         sufficientFunds[from].await(() -> move(from, to, amount), -1, TimeUnit.NANOSECONDS);
+      sufficientFunds[to].signal();
+      log.transferred(from, to, amount);
    }
 
    /**
-    * Transfers money from one account to another.
+    * Transfers money from one account to another, waiting at most the given
+    * time for the source account to hold enough money. It queues behind
+    * waiting transfers like {@link #transfer}.
     * @param from the account to transfer from
     * @param to the account to transfer to
-    * @param amount the amount to transfer
+    * @param amount the amount to transfer, in cents
+    * @param timeout the maximum time to wait
+    * @param unit the unit of the timeout
+    * @return true if the money was moved, false if the time ran out first
     */
-   public synchronized void transfer(int from, int to, double amount) throws InterruptedException
+   public boolean tryTransfer(int from, int to, long amount, long timeout, TimeUnit unit)
+      throws InterruptedException
    {
-      while (accounts[from] < amount)
-         wait();
-      System.out.print(Thread.currentThread());
+      if (!tryMove(from, to, amount)
+         && !sufficientFunds[from].await(() -> move(from, to, amount), timeout, unit))
+         return false;
+      sufficientFunds[to].signal();
+      log.transferred(from, to, amount);
+      return true;
+   }
+
+   /**
+    * Moves money at once if no transfer is waiting for the source account and
+    * it holds enough.
+    * @return true if the money was moved
+    */
+   private boolean tryMove(int from, int to, long amount)
+   {
+      return !sufficientFunds[from].hasWaiters() && move(from, to, amount);
+   }
+
+   /**
+    * Moves money between accounts if the source account holds enough. This is
+    * the only place that holds the monitor, and it never blocks inside it;
+    * waiting for funds happens in the wait queues, outside the monitor.
+    * @return true if the money was moved
+    */
+   private synchronized boolean move(int from, int to, long amount)
+   {
+      if (accounts[from] < amount) return false;
       accounts[from] -= amount;
-      System.out.printf(" %10.2f from %d to %d", amount, from, to);
-      accounts[to] += amount;
-      System.out.printf(" Total Balance: %10.2f%n", getTotalBalance());
-      notifyAll();
+      accounts[to] = Money.add(accounts[to], amount);
+      replica.changed(from, to, accounts);
+      return true;
+   }
+
+   /**
+    * Publishes the changes that are pending in the replica. Called by the
+    * replica when its oldest change is getting too stale.
+    */
+   private synchronized void publishReplica()
+   {
+      replica.publish(accounts);
+   }
+
+   /**
+    * Gets the balance of an account from the replica, without the monitor.
+    * The balance may lag behind the transfers by up to the staleness that
+    * the replica policy allows, but it always includes either all or none of
+    * a transfer.
+    * @param account the account number
+    * @return the balance, in cents
+    */
+   public long getBalance(int account)
+   {
+      return replica.get(account);
    }
 
    /**
     * Gets the sum of all account balances.
-    * @return the total balance
+    * @return the total balance, in cents
     */
-   public synchronized double getTotalBalance()
+   public synchronized long getTotalBalance()
    {
-      double sum = 0;
+      long sum = 0;
 
-      for (double a : accounts)
+      for (long a : accounts)
          sum += a;
 
       return sum;
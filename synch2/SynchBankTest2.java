@@ -1,5 +1,8 @@
 package synch2;
 
+import loadGen.*;
+import money.*;
+
 /**
  * This program shows how multiple threads can safely access a data structure,
  * using synchronized methods.
@@ -9,33 +12,40 @@ package synch2;
 public class SynchBankTest2
 {
    public static final int NACCOUNTS = 100;
-   public static final double INITIAL_BALANCE = 1000;
-   public static final double MAX_AMOUNT = 1000;
+   public static final long INITIAL_BALANCE = Money.ofUnits(1000);
+   public static final long MAX_AMOUNT = Money.ofUnits(1000);
    public static final int DELAY = 10;
+   public static final int REPORT_DELAY = 1000;
 
-   public static void main(String[] args)
+   /**
+    * @param args the load options, see {@link LoadOptions}
+    */
+   public static void main(String[] args) throws InterruptedException
    {
-      var bank = new Bank(NACCOUNTS, INITIAL_BALANCE);
-      for (int i = 0; i < NACCOUNTS; i++)
-      {
-         int fromAccount = i;
-         Runnable r = () -> {
-            try
-            {
-               while (true)
-               {
-                  int toAccount = (int) (bank.size() * Math.random());
-                  double amount = MAX_AMOUNT * Math.random();
-                  bank.transfer(fromAccount, toAccount, amount);
-                  Thread.sleep((int) (DELAY * Math.random()));
-               }
-            }
-            catch (InterruptedException e)
+      var options = new LoadOptions(args);
+      int naccounts = options.getInt("accounts", NACCOUNTS);
+      var bank = new Bank(naccounts, INITIAL_BALANCE);
+
+      // The transfers no longer print the total, so report it from here.
+      Runnable reporter = () -> {
+         try
+         {
+            while (true)
             {
+               Thread.sleep(REPORT_DELAY);
+               System.out.printf("Total Balance: %10s%n", Money.format(bank.getTotalBalance()));
             }
-         };
-         var t = new Thread(r);
-         t.start();
-      }
+         }
+         catch (InterruptedException e)
+         {
+         }
+      };
+      var t = new Thread(reporter);
+      t.setDaemon(true);
+      t.start();
+
+      LoadGenerator.Report report = options.run(bank::transfer, naccounts, MAX_AMOUNT, DELAY);
+      report.print(System.out);
+      System.out.printf("Total Balance: %10s%n", Money.format(bank.getTotalBalance()));
    }
 }
@@ -0,0 +1,81 @@
+package synch2;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * A queue of threads waiting for a condition to become true. Waiters park
+ * with LockSupport instead of Object.wait, and hold no monitor while parked,
+ * so a waiting virtual thread never pins its carrier thread. Only the thread
+ * at the head of the queue checks the condition, so waiters go through in
+ * the order in which they started waiting; a thread that leaves the queue
+ * wakes the next one.
+ */
+class WaitQueue
+{
+   private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+   /**
+    * Waits until the caller is at the head of the queue and a condition
+    * holds. The condition is checked once more after the caller has joined
+    * the queue, so a signal sent after the caller's last failed check always
+    * reaches it.
+    * @param condition the condition; checking it may have side effects that
+    * only happen when it returns true
+    * @param timeout the longest time to wait, or a negative value to wait
+    * without limit
+    * @param unit the unit of the timeout
+    * @return true if the condition became true, false if the time ran out
+    */
+   boolean await(BooleanSupplier condition, long timeout, TimeUnit unit) throws InterruptedException
+   {
+      long deadline = timeout < 0 ? 0 : System.nanoTime() + unit.toNanos(timeout);
+      Thread current = Thread.currentThread();
+      waiters.add(current);
+      try
+      {
+         while (waiters.peek() != current || !condition.getAsBoolean())
+         {
+            if (timeout < 0)
+               LockSupport.park(this);
+            else
+            {
+               long nanos = deadline - System.nanoTime();
+               if (nanos <= 0) return false;
+               LockSupport.parkNanos(this, nanos);
+            }
+            if (Thread.interrupted()) throw new InterruptedException();
+         }
+         return true;
+      }
+      finally
+      {
+         // Whether this thread succeeded or gave up, the next one may now be
+         // able to go through.
+         waiters.remove(current);
+         signal();
+      }
+   }
+
+   /**
+    * Tells whether threads are waiting, so that a new caller can queue
+    * behind them instead of going first.
+    * @return true if the queue is not empty
+    */
+   boolean hasWaiters()
+   {
+      return !waiters.isEmpty();
+   }
+
+   /**
+    * Wakes the thread at the head of the queue, so that it checks its
+    * condition again.
+    */
+   void signal()
+   {
+      Thread head = waiters.peek();
+      if (head != null) LockSupport.unpark(head);
+   }
+}
@@ -1,5 +1,7 @@
 package threads;
 
+import money.*;
+
 /**
  * @version 1.30 2004-08-01
  * @author Cay Horstmann
@@ -8,19 +10,20 @@ public class ThreadTest
 {
    public static final int DELAY = 10;
    public static final int STEPS = 100;
-   public static final double MAX_AMOUNT = 1000;
+   public static final long INITIAL_BALANCE = Money.ofUnits(100000);
+   public static final long MAX_AMOUNT = Money.ofUnits(1000);
 
    public static void main(String[] args)
    {
 
-      var bank = new Bank(4, 100000);
+      var bank = new Bank(4, INITIAL_BALANCE);
       Runnable task1 = () ->
       {
         try
         {
            for (int i = 0; i < STEPS; i++)
            {
-              double amount = MAX_AMOUNT * Math.random();
+              long amount = (long) (MAX_AMOUNT * Math.random());
               bank.transfer(0, 1, amount);
               Thread.sleep((int) (DELAY * Math.random()));
            }
@@ -36,7 +39,7 @@ public class ThreadTest
         {
            for (int i = 0; i < STEPS; i++)
            {
-              double amount = MAX_AMOUNT * Math.random();
+              long amount = (long) (MAX_AMOUNT * Math.random());
               bank.transfer(2, 3, amount);
               Thread.sleep((int) (DELAY * Math.random()));
            }
@@ -0,0 +1,183 @@
+package transferLog;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import money.*;
+
+/**
+ * A transfer sink that hands records to a single writer thread through a
+ * bounded ring buffer. Producers never block: when the ring is full the
+ * record is dropped and counted. The writer formats records in batches into
+ * one buffer and writes the buffer to a channel.
+ */
+public class AsyncTransferSink implements TransferSink, AutoCloseable
+{
+   private static final int BUFFER_SIZE = 8192;
+   private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+   private final WritableByteChannel out;
+   private final int sampleRate;
+   private final int mask;
+
+   // The ring slots. Slot i holds the record with sequence number s
+   // when published[i] == s.
+   private final Thread[] threads;
+   private final int[] froms;
+   private final int[] tos;
+   private final long[] amounts;
+   private final AtomicLongArray published;
+
+   private final AtomicLong claimed = new AtomicLong();
+   private volatile long consumed;
+   private final LongAdder dropped = new LongAdder();
+
+   private volatile boolean closed;
+   private final Thread writer;
+
+   /**
+    * Constructs a sink and starts its writer thread.
+    * @param out the channel that receives the formatted records
+    * @param capacity the number of records the ring can hold, rounded up to
+    * a power of two
+    * @param sampleRate record one in this many transfers; 1 records every one
+    */
+   public AsyncTransferSink(WritableByteChannel out, int capacity, int sampleRate)
+   {
+      if (capacity <= 0) throw new IllegalArgumentException("capacity " + capacity);
+      if (sampleRate <= 0) throw new IllegalArgumentException("sampleRate " + sampleRate);
+      this.out = out;
+      this.sampleRate = sampleRate;
+      int size = Integer.highestOneBit(capacity - 1) << 1;
+      if (capacity == 1) size = 1;
+      mask = size - 1;
+      threads = new Thread[size];
+      froms = new int[size];
+      tos = new int[size];
+      amounts = new long[size];
+      published = new AtomicLongArray(size);
+      for (int i = 0; i < size; i++)
+         published.set(i, -1);
+
+      writer = new Thread(this::drain, "transfer-log-writer");
+      writer.setDaemon(true);
+      writer.start();
+   }
+
+   /**
+    * Yields a sink that writes every transfer to standard output.
+    * @return a sink on standard output
+    */
+   public static AsyncTransferSink console()
+   {
+      // Going through System.out keeps batches from splitting other printed lines.
+      return new AsyncTransferSink(Channels.newChannel(System.out), 8192, 1);
+   }
+
+   public void transferred(int from, int to, long amount)
+   {
+      if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) return;
+
+      long seq;
+      do
+      {
+         seq = claimed.get();
+         if (seq - consumed > mask)
+         {
+            dropped.increment();
+            return;
+         }
+      }
+      while (!claimed.compareAndSet(seq, seq + 1));
+
+      int i = (int) seq & mask;
+      threads[i] = Thread.currentThread();
+      froms[i] = from;
+      tos[i] = to;
+      amounts[i] = amount;
+      published.lazySet(i, seq);
+   }
+
+   /**
+    * Gets the number of records dropped because the ring buffer was full.
+    * @return the number of dropped records
+    */
+   public long getDropped()
+   {
+      return dropped.sum();
+   }
+
+   /**
+    * Writes out the records that are still in the ring and stops the writer.
+    */
+   public void close()
+   {
+      closed = true;
+      LockSupport.unpark(writer);
+      try
+      {
+         writer.join();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * The writer loop: takes every record published so far, formats them into
+    * one buffer and writes the buffer once per batch.
+    */
+   private void drain()
+   {
+      var text = new StringBuilder();
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+      long next = consumed;
+      try
+      {
+         while (true)
+         {
+            boolean stopping = closed;
+            int i = (int) next & mask;
+            while (published.get(i) == next)
+            {
+               text.append(threads[i]).append(String.format(" %10s from %d to %d%n",
+                  Money.format(amounts[i]), froms[i], tos[i]));
+               threads[i] = null;
+               next++;
+               consumed = next;
+               i = (int) next & mask;
+               if (text.length() >= BUFFER_SIZE / 2) write(text, buffer, encoder);
+            }
+            if (text.length() > 0) write(text, buffer, encoder);
+            if (stopping && next == claimed.get()) return;
+            LockSupport.parkNanos(IDLE_NANOS);
+         }
+      }
+      catch (IOException e)
+      {
+         e.printStackTrace();
+      }
+   }
+
+   private void write(StringBuilder text, ByteBuffer buffer, CharsetEncoder encoder)
+      throws IOException
+   {
+      CharBuffer chars = CharBuffer.wrap(text);
+      while (chars.hasRemaining())
+      {
+         encoder.encode(chars, buffer, true);
+         buffer.flip();
+         while (buffer.hasRemaining())
+            out.write(buffer);
+         buffer.clear();
+      }
+      encoder.reset();
+      text.setLength(0);
+   }
+}
@@ -0,0 +1,26 @@
+package transferLog;
+
+/**
+ * Receives a record of every completed transfer. Banks call the sink after
+ * releasing their lock, so an implementation must be thread-safe and should
+ * return quickly.
+ */
+public interface TransferSink
+{
+   /**
+    * Records a completed transfer made by the current thread.
+    * @param from the account the money came from
+    * @param to the account the money went to
+    * @param amount the amount transferred, in cents
+    */
+   void transferred(int from, int to, long amount);
+
+   /**
+    * Yields a sink that drops every record.
+    * @return a sink that does nothing
+    */
+   static TransferSink discard()
+   {
+      return (from, to, amount) -> {};
+   }
+}
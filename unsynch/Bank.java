@@ -1,22 +1,24 @@
 package unsynch;
 
 import java.util.*;
+import money.*;
 
 /**
- * A bank with a number of bank accounts.
+ * A bank with a number of bank accounts. Balances and amounts are whole
+ * cents, see {@link Money}.
  */
 public class Bank
 {
-   private final double[] accounts;
+   private final long[] accounts;
 
    /**
     * Constructs the bank.
     * @param n the number of accounts
-    * @param initialBalance the initial balance for each account
+    * @param initialBalance the initial balance for each account, in cents
     */
-   public Bank(int n, double initialBalance)
+   public Bank(int n, long initialBalance)
    {
-      accounts = new double[n];
+      accounts = new long[n];
       Arrays.fill(accounts, initialBalance);
    }
 
@@ -24,27 +26,27 @@ public class Bank
     * Transfers money from one account to another.
     * @param from the account to transfer from
     * @param to the account to transfer to
-    * @param amount the amount to transfer
+    * @param amount the amount to transfer, in cents
     */
-   public void transfer(int from, int to, double amount)
+   public void transfer(int from, int to, long amount)
    {
       if (accounts[from] < amount) return;
       System.out.print(Thread.currentThread());
       accounts[from] -= amount;
-      System.out.printf(" %10.2f from %d to %d", amount, from, to);
+      System.out.printf(" %10s from %d to %d", Money.format(amount), from, to);
       accounts[to] += amount;
-      System.out.printf(" Total Balance: %10.2f%n", getTotalBalance());
+      System.out.printf(" Total Balance: %10s%n", Money.format(getTotalBalance()));
    }
 
    /**
     * Gets the sum of all account balances.
-    * @return the total balance
+    * @return the total balance, in cents
     */
-   public double getTotalBalance()
+   public long getTotalBalance()
    {
-      double sum = 0;
+      long sum = 0;
 
-      for (double a : accounts)
+      for (long a : accounts)
          sum += a;
 
       return sum;